@@ -20,18 +20,12 @@ package nl.knaw.huc.di.tag;
  * #L%
  */
 
-import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Comparator;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
@@ -55,7 +49,7 @@ import nl.knaw.huc.di.tag.tagml.TAGML;
 import nl.knaw.huc.di.tag.tagml.TAGMLSyntaxError;
 import nl.knaw.huc.di.tag.tagml.importer.TAGMLImporter;
 import nl.knaw.huc.di.tag.tagml.xml.exporter.XMLExporter;
-import nl.knaw.huygens.alexandria.storage.BDBTAGStore;
+import nl.knaw.huygens.alexandria.storage.MemoryTAGStore;
 import nl.knaw.huygens.alexandria.storage.TAGDocument;
 import nl.knaw.huygens.alexandria.storage.TAGStore;
 
@@ -87,9 +81,7 @@ public class AlexandriaStep extends DefaultStep {
       URL url = tagmlURI.toURL();
       URLConnection connection = url.openConnection();
       InputStream stream = connection.getInputStream();
-      Path tmpPath = mkTmpDir();
-      TAGStore store = new BDBTAGStore(tmpPath.toString(), false);
-      store.open();
+      TAGStore store = new MemoryTAGStore();
       TAGDocument document =
           store.runInTransaction(
               () -> {
@@ -103,7 +95,6 @@ public class AlexandriaStep extends DefaultStep {
       String xml =
           store.runInTransaction(() -> new XMLExporter(store).asXML(document, TAGML.DEFAULT_LAYER));
       store.close();
-      rmTmpDir(tmpPath);
 
       StringReader reader = new StringReader(xml);
       InputSource inputSource = new InputSource(reader);
@@ -157,24 +148,4 @@ public class AlexandriaStep extends DefaultStep {
       }
     }
   }
-
-  private Path mkTmpDir() throws IOException {
-    String tmpdirProperty = System.getProperty("java.io.tmpdir");
-    Path tmpPath = Paths.get(tmpdirProperty, ".alexandria");
-    if (tmpPath.toFile().exists()) {
-      Files.walk(tmpPath)
-          .sorted(Comparator.reverseOrder())
-          .map(Path::toFile)
-          .filter(File::isFile)
-          .forEach(File::delete);
-
-    } else {
-      tmpPath = Files.createDirectory(tmpPath);
-    }
-    return tmpPath;
-  }
-
-  private void rmTmpDir(final Path tmpPath) throws IOException {
-    Files.walk(tmpPath).map(Path::toFile).forEach(File::deleteOnExit);
-  }
 }
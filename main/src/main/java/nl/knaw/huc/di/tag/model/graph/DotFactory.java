@@ -91,7 +91,7 @@ public class DotFactory {
 
     dotBuilder.append("    rank=same\n");
 
-    textGraph = document.getDTO().textGraph;
+    textGraph = document.getDTO().getTextGraph();
     AtomicLong prevNode = new AtomicLong(-1);
     textGraph
         .getTextNodeIdStream()
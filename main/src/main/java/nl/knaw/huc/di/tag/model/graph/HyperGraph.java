@@ -159,6 +159,42 @@ public class HyperGraph<N, H> {
     return nodes.contains(node);
   }
 
+  // raw access for TextGraphCodec
+
+  Set<N> getNodes() {
+    return nodes;
+  }
+
+  String getNodeLabel(N node) {
+    return nodeLabels.get(node);
+  }
+
+  String getEdgeLabel(H edge) {
+    return edgeLabels.get(edge);
+  }
+
+  Set<N> getNodesWithOutgoingEdges() {
+    return outgoingEdges.keySet();
+  }
+
+  Set<N> getNodesWithIncomingEdges() {
+    return incomingEdges.keySet();
+  }
+
+  void restoreHyperEdge(H edge, String label, N source, Collection<N> targets) {
+    sourceNode.put(edge, source);
+    targetNodes.put(edge, targets);
+    edgeLabels.put(edge, label);
+  }
+
+  void restoreOutgoingEdges(N node, Collection<H> edges) {
+    outgoingEdges.put(node, edges);
+  }
+
+  void restoreIncomingEdges(N node, Collection<H> edges) {
+    incomingEdges.put(node, edges);
+  }
+
   private void removeHyperEdge(final H edge) {
     N sourceNode = this.sourceNode.get(edge);
     outgoingEdges.get(sourceNode).remove(edge);
@@ -0,0 +1,71 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sleepycat.persist.model.Persistent;
+
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+
+/**
+ * The {@link TextGraph} as it was stored before it was encoded by {@link TextGraphCodec}, kept to
+ * read documents that have not been written again since.
+ */
+@Persistent(version = 1)
+public class LegacyTextGraph extends HyperGraph<Long, Edge> {
+  String id = "";
+  Long documentNode;
+  Map<String, Long> layerRootMap = new LinkedHashMap<>();
+  Map<String, String> parentLayerMap = new HashMap<>();
+  Long firstTextNodeId;
+
+  public LegacyTextGraph() {
+    super(GraphType.ORDERED);
+  }
+
+  public TextGraph toTextGraph() {
+    TextGraph textGraph = new TextGraph();
+    textGraph.id = id;
+    textGraph.documentNode = documentNode;
+    textGraph.layerRootMap.putAll(layerRootMap);
+    textGraph.parentLayerMap.putAll(parentLayerMap);
+    textGraph.firstTextNodeId = firstTextNodeId;
+    for (Long node : getNodes()) {
+      textGraph.addNode(node, getNodeLabel(node));
+    }
+    for (Long source : getNodesWithOutgoingEdges()) {
+      for (Edge edge : getOutgoingEdges(source)) {
+        long[] targets = getTargets(edge).stream().mapToLong(Long::longValue).toArray();
+        textGraph.restoreHyperEdge(edge, getEdgeLabel(edge), source, targets);
+      }
+    }
+    for (Long source : getNodesWithOutgoingEdges()) {
+      textGraph.restoreOutgoingEdges(source, getOutgoingEdges(source));
+    }
+    for (Long target : getNodesWithIncomingEdges()) {
+      textGraph.restoreIncomingEdges(target, getIncomingEdges(target));
+    }
+    return textGraph;
+  }
+}
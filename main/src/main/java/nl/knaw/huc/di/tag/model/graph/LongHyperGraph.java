@@ -0,0 +1,677 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import nl.knaw.huygens.alexandria.LongObjectHashMap;
+
+
+/**
+ * Directed, labelled, ordered hypergraph on {@code long} node ids, with the api of {@link
+ * HyperGraph}.
+ *
+ * <p>The edges are numbered in the order they are added. The source, target and label of an edge
+ * are kept in arrays indexed by that number, and the incoming and outgoing edges of a node are kept
+ * as arrays of edge numbers, in maps with primitive long keys. Compared to the boxed maps and
+ * per-node lists of {@link HyperGraph}, this costs a few dozen bytes per edge.
+ *
+ * <p>The edges of a node are also kept split up by label, so the edges of a node with one label
+ * can be found without going over all the edges of the node.
+ *
+ * <p>A graph that will not be changed anymore can be frozen: the edge lists of all nodes are then
+ * moved into one array, next to a sorted array of the nodes, and the targets of all edges into
+ * another (a compressed sparse row layout). A frozen graph is not changed by reading it, so it can
+ * be shared between threads once it has been safely published.
+ *
+ * <p>The edge collections that are returned are read-only views, that should not be used across
+ * changes to the graph.
+ */
+public class LongHyperGraph<H> {
+  private static final int INITIAL_CAPACITY = 16;
+  // stands in for a null node label, the label map does not take null values
+  private static final String NO_LABEL = new String();
+
+  private final LongObjectHashMap<String> nodeLabels = new LongObjectHashMap<>();
+  private final Adjacency incomingEdges = new Adjacency();
+  private final Adjacency outgoingEdges = new Adjacency();
+  private final EdgeNumbers edgeNumbers = new EdgeNumbers();
+
+  private Object[] edges = new Object[INITIAL_CAPACITY];
+  private String[] edgeLabels = new String[INITIAL_CAPACITY];
+  private long[] sources = new long[INITIAL_CAPACITY];
+  // the target of edges that were added with one target; the target lists of the others are in
+  // multipleTargets, by edge number
+  private long[] targets = new long[INITIAL_CAPACITY];
+  private final LongObjectHashMap<long[]> multipleTargets = new LongObjectHashMap<>();
+  private int edgeCount = 0;
+  // counts the changes to the edges, for the views that subclasses derive from them
+  private int modifications = 0;
+  // the targets of all edges after freeze(), those of edge n from frozenTargetStarts[n]
+  private long[] frozenTargets;
+  private int[] frozenTargetStarts;
+
+  protected LongHyperGraph() {}
+
+  protected void addNode(long node, String label) {
+    checkNotFrozen();
+    nodeLabels.put(node, label == null ? NO_LABEL : label);
+  }
+
+  protected final void addDirectedHyperEdge(H edge, String label, long source, long... targets) {
+    checkNotFrozen();
+    int number = newEdge(edge, label, source, targets);
+    for (long target : targets) {
+      incomingEdges.add(target, label, number);
+    }
+    outgoingEdges.add(source, label, number);
+    modifications++;
+  }
+
+  protected final void addTargetsToHyperEdge(H edge, long... targets) {
+    checkNotFrozen();
+    int number = edgeNumber(edge);
+    long[] list = multipleTargets.get(number);
+    long[] added = addTargets(list != null ? list : targetList(this.targets[number]), targets);
+    if (added != list) {
+      multipleTargets.put(number, added);
+    }
+    for (long target : targets) {
+      incomingEdges.add(target, edgeLabels[number], number);
+    }
+    modifications++;
+  }
+
+  protected final void removeTargetsFromHyperEdge(H edge, long... targets) {
+    checkNotFrozen();
+    int number = edgeNumber(edge);
+    long[] list = multipleTargets.get(number);
+    if (list == null) {
+      list = targetList(this.targets[number]);
+      multipleTargets.put(number, list);
+    }
+    for (long target : targets) {
+      removeTarget(list, target);
+      incomingEdges.remove(target, edgeLabels[number], number);
+    }
+    if (list[0] == 0) {
+      removeHyperEdge(number);
+    }
+    modifications++;
+  }
+
+  public Collection<Long> getTargets(H e) {
+    int number = edgeNumbers.get(e);
+    if (number < 0) {
+      return null;
+    }
+    TargetIds targetIds = targetIds(number);
+    return new AbstractList<Long>() {
+      @Override
+      public Long get(int index) {
+        return targetIds.get(index);
+      }
+
+      @Override
+      public int size() {
+        return targetIds.size();
+      }
+    };
+  }
+
+  public Long getSource(H e) {
+    int number = edgeNumbers.get(e);
+    return number < 0 ? null : sources[number];
+  }
+
+  public Collection<H> getOutgoingEdges(Long node) {
+    return node == null ? Collections.emptyList() : outgoingEdges.get(node);
+  }
+
+  public Collection<H> getIncomingEdges(Long node) {
+    return node == null ? Collections.emptyList() : incomingEdges.get(node);
+  }
+
+  /** The outgoing edges of the node with the given label, in the order they were added. */
+  public Collection<H> getOutgoingEdges(Long node, String label) {
+    return node == null ? Collections.emptyList() : outgoingEdges.get(node, label);
+  }
+
+  /** The incoming edges of the node with the given label, in the order they were added. */
+  public Collection<H> getIncomingEdges(Long node, String label) {
+    return node == null ? Collections.emptyList() : incomingEdges.get(node, label);
+  }
+
+  /** The edge that was last added to the outgoing edges of the node, or null if there is none. */
+  protected H getLastOutgoingEdge(Long node) {
+    List<H> edges = node == null ? Collections.emptyList() : outgoingEdges.get(node);
+    return edges.isEmpty() ? null : edges.get(edges.size() - 1);
+  }
+
+  /**
+   * Move the edge lists and targets into arrays that are not changed anymore. After this, the
+   * graph can not be changed.
+   */
+  public void freeze() {
+    if (isFrozen()) {
+      return;
+    }
+    edges = Arrays.copyOf(edges, edgeCount);
+    edgeLabels = Arrays.copyOf(edgeLabels, edgeCount);
+    sources = Arrays.copyOf(sources, edgeCount);
+    int[] starts = new int[edgeCount + 1];
+    for (int number = 0; number < edgeCount; number++) {
+      // the targets of removed edges are left out
+      int size = edges[number] == null ? 0 : targetIds(number).size();
+      starts[number + 1] = starts[number] + size;
+    }
+    // the spare room of the target lists is left behind
+    long[] allTargets = new long[starts[edgeCount]];
+    for (int number = 0; number < edgeCount; number++) {
+      if (edges[number] != null) {
+        TargetIds targetIds = targetIds(number);
+        System.arraycopy(
+            targetIds.ids, targetIds.from, allTargets, starts[number], targetIds.size());
+      }
+    }
+    frozenTargetStarts = starts;
+    frozenTargets = allTargets;
+    targets = null;
+    multipleTargets.clear();
+    incomingEdges.freeze();
+    outgoingEdges.freeze();
+  }
+
+  public boolean isFrozen() {
+    return frozenTargets != null;
+  }
+
+  protected void checkNotFrozen() {
+    if (isFrozen()) {
+      throw new IllegalStateException("the graph is frozen");
+    }
+  }
+
+  protected boolean nodeExists(Long node) {
+    return node != null && nodeLabels.containsKey(node);
+  }
+
+  /** The number of times edges were added, removed or given other targets. */
+  protected int getModifications() {
+    return modifications;
+  }
+
+  /** The targets of the edge, or null for an unknown edge. */
+  protected TargetIds getTargetIds(H edge) {
+    int number = edgeNumbers.get(edge);
+    return number < 0 ? null : targetIds(number);
+  }
+
+  // raw access for TextGraphCodec
+
+  long[] getNodeIds() {
+    return keys(nodeLabels);
+  }
+
+  String getNodeLabel(long node) {
+    String label = nodeLabels.get(node);
+    return label == NO_LABEL ? null : label;
+  }
+
+  String getEdgeLabel(H edge) {
+    int number = edgeNumbers.get(edge);
+    return number < 0 ? null : edgeLabels[number];
+  }
+
+  long[] getNodesWithOutgoingEdges() {
+    return outgoingEdges.nodes();
+  }
+
+  long[] getNodesWithIncomingEdges() {
+    return incomingEdges.nodes();
+  }
+
+  /** Add an edge without adding it to the edge lists of its nodes. */
+  void restoreHyperEdge(H edge, String label, long source, long[] targets) {
+    checkNotFrozen();
+    newEdge(edge, label, source, targets);
+    modifications++;
+  }
+
+  void restoreOutgoingEdges(long node, Collection<H> edges) {
+    restoreEdges(outgoingEdges, node, edges);
+  }
+
+  void restoreIncomingEdges(long node, Collection<H> edges) {
+    restoreEdges(incomingEdges, node, edges);
+  }
+
+  private void restoreEdges(Adjacency adjacency, long node, Collection<H> edges) {
+    checkNotFrozen();
+    adjacency.clear(node);
+    for (H edge : edges) {
+      int number = edgeNumber(edge);
+      adjacency.add(node, edgeLabels[number], number);
+    }
+    modifications++;
+  }
+
+  private int newEdge(H edge, String label, long source, long[] targets) {
+    if (edgeCount == edges.length) {
+      int capacity = edgeCount * 2;
+      edges = Arrays.copyOf(edges, capacity);
+      edgeLabels = Arrays.copyOf(edgeLabels, capacity);
+      sources = Arrays.copyOf(sources, capacity);
+      this.targets = Arrays.copyOf(this.targets, capacity);
+    }
+    int number = edgeCount++;
+    edges[number] = edge;
+    edgeLabels[number] = label;
+    sources[number] = source;
+    if (targets.length == 1) {
+      this.targets[number] = targets[0];
+    } else {
+      multipleTargets.put(number, targetList(targets));
+    }
+    edgeNumbers.put(edge, number);
+    return number;
+  }
+
+  private void removeHyperEdge(int number) {
+    outgoingEdges.remove(sources[number], edgeLabels[number], number);
+    edgeNumbers.remove(edges[number]);
+    edges[number] = null;
+    edgeLabels[number] = null;
+    multipleTargets.remove(number);
+  }
+
+  private int edgeNumber(H edge) {
+    int number = edgeNumbers.get(edge);
+    if (number < 0) {
+      throw new RuntimeException("unknown hyperedge " + edge);
+    }
+    return number;
+  }
+
+  private TargetIds targetIds(int number) {
+    if (frozenTargets != null) {
+      return new TargetIds(
+          frozenTargets, frozenTargetStarts[number], frozenTargetStarts[number + 1]);
+    }
+    long[] list = multipleTargets.get(number);
+    return list != null
+        ? new TargetIds(list, 1, 1 + (int) list[0])
+        : new TargetIds(targets, number, number + 1);
+  }
+
+  /**
+   * The targets of an edge: a read-only view on the arrays of the graph, so no targets are copied
+   * to read them. Like the edge collections, it should not be used across changes to the graph.
+   */
+  public static final class TargetIds {
+    private final long[] ids;
+    private final int from;
+    private final int to;
+
+    private TargetIds(long[] ids, int from, int to) {
+      this.ids = ids;
+      this.from = from;
+      this.to = to;
+    }
+
+    public int size() {
+      return to - from;
+    }
+
+    public long get(int index) {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+      }
+      return ids[from + index];
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private H edge(int number) {
+    return (H) edges[number];
+  }
+
+  // the edge number list that starts at the given index of the array
+  private List<H> edgeList(int[] numbers, int start) {
+    if (numbers == null) {
+      return Collections.emptyList();
+    }
+    int size = numbers[start];
+    return new AbstractList<H>() {
+      @Override
+      public H get(int index) {
+        if (index < 0 || index >= size) {
+          throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return edge(numbers[start + index + 1]);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  // an edge number list is an int array with the size in the first element
+
+  private static int[] addEdgeNumber(int[] numbers, int number) {
+    if (numbers == null) {
+      numbers = new int[2];
+    } else if (numbers[0] + 1 == numbers.length) {
+      numbers = Arrays.copyOf(numbers, numbers.length * 2);
+    }
+    numbers[++numbers[0]] = number;
+    return numbers;
+  }
+
+  private static void removeEdgeNumber(int[] numbers, int number) {
+    if (numbers != null) {
+      int size = numbers[0];
+      for (int i = 1; i <= size; i++) {
+        if (numbers[i] == number) {
+          System.arraycopy(numbers, i + 1, numbers, i, size - i);
+          numbers[0] = size - 1;
+          return;
+        }
+      }
+    }
+  }
+
+  // a target list is a long array with the size in the first element, that grows like the edge
+  // number lists, so targets can be added one at a time
+
+  private static long[] targetList(long... targets) {
+    long[] list = new long[targets.length + 1];
+    list[0] = targets.length;
+    System.arraycopy(targets, 0, list, 1, targets.length);
+    return list;
+  }
+
+  private static long[] addTargets(long[] list, long[] targets) {
+    int size = (int) list[0];
+    int length = size + targets.length + 1;
+    if (length > list.length) {
+      list = Arrays.copyOf(list, Math.max(length, list.length * 2));
+    }
+    System.arraycopy(targets, 0, list, size + 1, targets.length);
+    list[0] = size + targets.length;
+    return list;
+  }
+
+  private static void removeTarget(long[] list, long target) {
+    int size = (int) list[0];
+    for (int i = 1; i <= size; i++) {
+      if (list[i] == target) {
+        System.arraycopy(list, i + 1, list, i, size - i);
+        list[0] = size - 1;
+        return;
+      }
+    }
+  }
+
+  private static int copyEdgeNumbers(int[] numbers, int[] to, int start) {
+    int length = numbers[0] + 1;
+    System.arraycopy(numbers, 0, to, start, length);
+    return start + length;
+  }
+
+  // the labels of the edges are shared, so most are found by identity
+  private static int indexOf(String[] labels, int from, int to, String label) {
+    for (int i = from; i < to; i++) {
+      if (labels[i] == label) {
+        return i;
+      }
+    }
+    for (int i = from; i < to; i++) {
+      if (labels[i] != null && labels[i].equals(label)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static long[] keys(LongObjectHashMap<?> map) {
+    long[] keys = new long[map.size()];
+    int[] i = {0};
+    map.forEach((key, value) -> keys[i[0]++] = key);
+    return keys;
+  }
+
+  /**
+   * The edge number lists of the nodes on one side of the edges: one with all the edges of a node,
+   * and one for each label of those edges. The labels of a node are few, so they are searched in
+   * order. When the graph is frozen, all the lists are moved into one array.
+   */
+  private class Adjacency {
+    private LongObjectHashMap<int[]> all = new LongObjectHashMap<>();
+    private LongObjectHashMap<LabelledEdgeNumbers> byLabel = new LongObjectHashMap<>();
+
+    // after freeze(): the nodes in order, and for node i its list from frozenStarts[i], and its
+    // labels and their lists from frozenLabelRuns[i] up to frozenLabelRuns[i + 1]
+    private long[] frozenNodes;
+    private int[] frozenStarts;
+    private int[] frozenLabelRuns;
+    private String[] frozenLabels;
+    private int[] frozenLabelStarts;
+    private int[] frozenNumbers;
+
+    List<H> get(long node) {
+      if (frozenNodes == null) {
+        return edgeList(all.get(node), 0);
+      }
+      int i = Arrays.binarySearch(frozenNodes, node);
+      return i < 0 ? Collections.emptyList() : edgeList(frozenNumbers, frozenStarts[i]);
+    }
+
+    List<H> get(long node, String label) {
+      if (frozenNodes == null) {
+        LabelledEdgeNumbers labelled = byLabel.get(node);
+        int r = labelled == null ? -1 : indexOf(labelled.labels, 0, labelled.size, label);
+        return r < 0 ? Collections.emptyList() : edgeList(labelled.numbers[r], 0);
+      }
+      int i = Arrays.binarySearch(frozenNodes, node);
+      int r =
+          i < 0 ? -1 : indexOf(frozenLabels, frozenLabelRuns[i], frozenLabelRuns[i + 1], label);
+      return r < 0 ? Collections.emptyList() : edgeList(frozenNumbers, frozenLabelStarts[r]);
+    }
+
+    long[] nodes() {
+      return frozenNodes == null ? keys(all) : frozenNodes.clone();
+    }
+
+    void add(long node, String label, int number) {
+      int[] numbers = all.get(node);
+      int[] added = addEdgeNumber(numbers, number);
+      if (added != numbers) {
+        all.put(node, added);
+      }
+      LabelledEdgeNumbers labelled = byLabel.get(node);
+      if (labelled == null) {
+        labelled = new LabelledEdgeNumbers();
+        byLabel.put(node, labelled);
+      }
+      labelled.add(label, number);
+    }
+
+    void remove(long node, String label, int number) {
+      removeEdgeNumber(all.get(node), number);
+      LabelledEdgeNumbers labelled = byLabel.get(node);
+      if (labelled != null) {
+        int i = indexOf(labelled.labels, 0, labelled.size, label);
+        if (i >= 0) {
+          removeEdgeNumber(labelled.numbers[i], number);
+        }
+      }
+    }
+
+    void clear(long node) {
+      all.put(node, new int[1]);
+      byLabel.remove(node);
+    }
+
+    void freeze() {
+      long[] nodes = keys(all);
+      Arrays.sort(nodes);
+      int length = 0;
+      int runs = 0;
+      for (long node : nodes) {
+        length += all.get(node)[0] + 1;
+        LabelledEdgeNumbers labelled = byLabel.get(node);
+        for (int r = 0; labelled != null && r < labelled.size; r++) {
+          length += labelled.numbers[r][0] + 1;
+          runs++;
+        }
+      }
+      int[] numbers = new int[length];
+      int[] starts = new int[nodes.length];
+      int[] labelRuns = new int[nodes.length + 1];
+      String[] labels = new String[runs];
+      int[] labelStarts = new int[runs];
+      int start = 0;
+      int run = 0;
+      for (int i = 0; i < nodes.length; i++) {
+        starts[i] = start;
+        start = copyEdgeNumbers(all.get(nodes[i]), numbers, start);
+        labelRuns[i] = run;
+        LabelledEdgeNumbers labelled = byLabel.get(nodes[i]);
+        for (int r = 0; labelled != null && r < labelled.size; r++) {
+          labels[run] = labelled.labels[r];
+          labelStarts[run] = start;
+          start = copyEdgeNumbers(labelled.numbers[r], numbers, start);
+          run++;
+        }
+      }
+      labelRuns[nodes.length] = run;
+      frozenNodes = nodes;
+      frozenStarts = starts;
+      frozenLabelRuns = labelRuns;
+      frozenLabels = labels;
+      frozenLabelStarts = labelStarts;
+      frozenNumbers = numbers;
+      all = null;
+      byLabel = null;
+    }
+  }
+
+  private static class LabelledEdgeNumbers {
+    private String[] labels = new String[1];
+    private int[][] numbers = new int[1][];
+    private int size = 0;
+
+    void add(String label, int number) {
+      int i = indexOf(labels, 0, size, label);
+      if (i < 0) {
+        if (size == labels.length) {
+          labels = Arrays.copyOf(labels, size * 2);
+          numbers = Arrays.copyOf(numbers, size * 2);
+        }
+        i = size++;
+        labels[i] = label;
+      }
+      numbers[i] = addEdgeNumber(numbers[i], number);
+    }
+  }
+
+  /** Open addressing map from edge (by identity) to edge number, without boxing. */
+  private static class EdgeNumbers {
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    int get(Object edge) {
+      if (edge == null) {
+        return -1;
+      }
+      for (int i = slot(edge, keys.length); keys[i] != null; i = (i + 1) & (keys.length - 1)) {
+        if (keys[i] == edge) {
+          return values[i];
+        }
+      }
+      return -1;
+    }
+
+    void put(Object edge, int number) {
+      if ((size + 1) * 2 > keys.length) {
+        resize(keys.length * 2);
+      }
+      int i = slot(edge, keys.length);
+      while (keys[i] != null && keys[i] != edge) {
+        i = (i + 1) & (keys.length - 1);
+      }
+      if (keys[i] == null) {
+        size++;
+      }
+      keys[i] = edge;
+      values[i] = number;
+    }
+
+    void remove(Object edge) {
+      int mask = keys.length - 1;
+      int i = slot(edge, keys.length);
+      while (keys[i] != edge) {
+        if (keys[i] == null) {
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+      keys[i] = null;
+      size--;
+      // shift back the entries that would otherwise no longer be found
+      for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+        int home = slot(keys[j], keys.length);
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          keys[i] = keys[j];
+          values[i] = values[j];
+          keys[j] = null;
+          i = j;
+        }
+      }
+    }
+
+    private void resize(int capacity) {
+      Object[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new Object[capacity];
+      values = new int[capacity];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static int slot(Object edge, int capacity) {
+      int h = System.identityHashCode(edge);
+      return (h ^ (h >>> 16)) * 0x9E3779B1 & (capacity - 1);
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+import nl.knaw.huc.di.tag.model.graph.edges.EdgeType;
+import nl.knaw.huc.di.tag.model.graph.edges.LayerEdge;
+import nl.knaw.huygens.alexandria.LongObjectHashMap;
+
+import static nl.knaw.huygens.alexandria.DataIOUtil.readSignedVarLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.readVarInt;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeSignedVarLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeVarInt;
+
+/**
+ * For every markup of a {@link TextGraph}, the span of text it covers, as the positions of its
+ * first and last text node in text order. Markup that does not cover all the text in between
+ * (discontinuous markup, markup around a variation) also has the runs of positions that it does
+ * cover. Together with the depth of the markup (its distance from the layer roots), this answers
+ * which markup covers a text node, innermost last, with a stabbing query on an interval tree: the
+ * spans are sorted by start, and every span is the root of the spans around it, with the largest
+ * end in that subtree.
+ */
+final class MarkupSpanIndex {
+  // the text node ids in text order, sorted, with their positions
+  private final long[] sortedTextNodes;
+  private final int[] positions;
+
+  // per span, sorted by start
+  private final long[] markupIds;
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] maxEnds;
+  private final int[] depths;
+  // per span: null when it covers all positions from start to end, else the runs it covers
+  private final int[][] runs;
+
+  private MarkupSpanIndex(
+      long[] textOrder,
+      long[] markupIds,
+      int[] starts,
+      int[] ends,
+      int[] depths,
+      int[][] runs) {
+    int textNodeCount = textOrder.length;
+    this.sortedTextNodes = textOrder.clone();
+    Arrays.sort(sortedTextNodes);
+    this.positions = new int[textNodeCount];
+    for (int position = 0; position < textNodeCount; position++) {
+      positions[Arrays.binarySearch(sortedTextNodes, textOrder[position])] = position;
+    }
+    this.markupIds = markupIds;
+    this.starts = starts;
+    this.ends = ends;
+    this.depths = depths;
+    this.runs = runs;
+    this.maxEnds = new int[starts.length];
+    computeMaxEnds(0, starts.length - 1);
+  }
+
+  private int computeMaxEnds(int low, int high) {
+    if (low > high) {
+      return -1;
+    }
+    int middle = (low + high) >>> 1;
+    int maxEnd =
+        Math.max(
+            ends[middle],
+            Math.max(computeMaxEnds(low, middle - 1), computeMaxEnds(middle + 1, high)));
+    maxEnds[middle] = maxEnd;
+    return maxEnd;
+  }
+
+  /**
+   * The ids of the markup that covers the text node, ordered by depth and then by id, or null when
+   * the text node is not in the text order.
+   */
+  long[] getMarkupIdsCovering(long textNodeId) {
+    int index = Arrays.binarySearch(sortedTextNodes, textNodeId);
+    if (index < 0) {
+      return null;
+    }
+    int position = positions[index];
+    List<Integer> found = new ArrayList<>();
+    stab(0, starts.length - 1, position, found);
+    found.sort(
+        Comparator.<Integer>comparingInt(i -> depths[i]).thenComparingLong(i -> markupIds[i]));
+    long[] covering = new long[found.size()];
+    for (int i = 0; i < covering.length; i++) {
+      covering[i] = markupIds[found.get(i)];
+    }
+    return covering;
+  }
+
+  private void stab(int low, int high, int position, List<Integer> found) {
+    if (low > high) {
+      return;
+    }
+    int middle = (low + high) >>> 1;
+    if (maxEnds[middle] < position) {
+      return;
+    }
+    stab(low, middle - 1, position, found);
+    if (starts[middle] <= position) {
+      if (ends[middle] >= position && covers(runs[middle], position)) {
+        found.add(middle);
+      }
+      stab(middle + 1, high, position, found);
+    }
+  }
+
+  private static boolean covers(int[] runs, int position) {
+    if (runs == null) {
+      return true;
+    }
+    // runs holds start, end pairs: find the last run that starts at or before the position
+    int low = 0;
+    int high = runs.length / 2 - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (runs[2 * middle] <= position) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return high >= 0 && runs[2 * high + 1] >= position;
+  }
+
+  static MarkupSpanIndex build(TextGraph textGraph, long[] textOrder) {
+    LongObjectHashMap<Integer> positionOf = new LongObjectHashMap<>(textOrder.length);
+    for (int position = 0; position < textOrder.length; position++) {
+      positionOf.put(textOrder[position], position);
+    }
+    LongObjectHashMap<int[]> runsOf = new LongObjectHashMap<>();
+    LongObjectHashMap<Integer> depthOf = depths(textGraph);
+    long[] sources = textGraph.getNodesWithOutgoingEdges();
+    Arrays.sort(sources);
+    List<long[]> spans = new ArrayList<>();
+    for (long markup : sources) {
+      if (textGraph.documentNode != null && markup == textGraph.documentNode) {
+        continue;
+      }
+      int[] markupRuns = runs(textGraph, markup, positionOf, runsOf);
+      if (markupRuns.length > 0) {
+        spans.add(new long[] {markup, markupRuns[0], markupRuns[markupRuns.length - 1]});
+      }
+    }
+    spans.sort(Comparator.comparingLong((long[] span) -> span[1]).thenComparingLong(s -> s[0]));
+
+    int count = spans.size();
+    long[] markupIds = new long[count];
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    int[] depths = new int[count];
+    int[][] runs = new int[count][];
+    for (int i = 0; i < count; i++) {
+      long[] span = spans.get(i);
+      markupIds[i] = span[0];
+      starts[i] = (int) span[1];
+      ends[i] = (int) span[2];
+      Integer depth = depthOf.get(span[0]);
+      depths[i] = depth == null ? Integer.MAX_VALUE : depth;
+      int[] markupRuns = runsOf.get(span[0]);
+      runs[i] = markupRuns.length == 2 ? null : markupRuns;
+    }
+    return new MarkupSpanIndex(textOrder, markupIds, starts, ends, depths, runs);
+  }
+
+  // The runs of positions that the markup covers, as sorted start, end pairs of its text and that
+  // of its child markup merged.
+  private static int[] runs(
+      TextGraph textGraph,
+      long markup,
+      LongObjectHashMap<Integer> positionOf,
+      LongObjectHashMap<int[]> runsOf) {
+    int[] known = runsOf.get(markup);
+    if (known != null) {
+      return known;
+    }
+    runsOf.put(markup, new int[0]); // against cycles
+    List<int[]> parts = new ArrayList<>();
+    for (Edge edge : textGraph.getOutgoingEdges(markup)) {
+      if (!(edge instanceof LayerEdge)) {
+        continue;
+      }
+      boolean text = ((LayerEdge) edge).hasType(EdgeType.hasText);
+      LongHyperGraph.TargetIds targets = textGraph.getTargetIds(edge);
+      for (int t = 0; t < targets.size(); t++) {
+        long target = targets.get(t);
+        if (text) {
+          Integer position = positionOf.get(target);
+          if (position != null) {
+            parts.add(new int[] {position, position});
+          }
+        } else {
+          parts.add(runs(textGraph, target, positionOf, runsOf));
+        }
+      }
+    }
+    int[] merged = merge(parts);
+    runsOf.put(markup, merged);
+    return merged;
+  }
+
+  private static int[] merge(List<int[]> parts) {
+    List<int[]> runs = new ArrayList<>();
+    for (int[] part : parts) {
+      for (int i = 0; i < part.length; i += 2) {
+        runs.add(new int[] {part[i], part[i + 1]});
+      }
+    }
+    runs.sort(Comparator.comparingInt(run -> run[0]));
+    int[] merged = new int[2 * runs.size()];
+    int size = 0;
+    for (int[] run : runs) {
+      if (size > 0 && run[0] <= merged[size - 1] + 1) {
+        merged[size - 1] = Math.max(merged[size - 1], run[1]);
+      } else {
+        merged[size++] = run[0];
+        merged[size++] = run[1];
+      }
+    }
+    return Arrays.copyOf(merged, size);
+  }
+
+  // The depth of the markup: breadth first from the layer roots along the layer edges, the depth
+  // at which a markup was last reached.
+  private static LongObjectHashMap<Integer> depths(TextGraph textGraph) {
+    LongObjectHashMap<Integer> depthOf = new LongObjectHashMap<>();
+    Deque<Long> nodesToProcess = new ArrayDeque<>(textGraph.layerRootMap.values());
+    textGraph.layerRootMap.values().forEach(root -> depthOf.put(root, 0));
+    Set<Long> nodesHandled = new HashSet<>();
+    while (!nodesToProcess.isEmpty()) {
+      Long nodeId = nodesToProcess.pop();
+      nodesHandled.add(nodeId);
+      int nextDepth = depthOf.get(nodeId) + 1;
+      for (Edge edge : textGraph.getOutgoingEdges(nodeId)) {
+        if (edge instanceof LayerEdge && ((LayerEdge) edge).hasType(EdgeType.hasMarkup)) {
+          LongHyperGraph.TargetIds children = textGraph.getTargetIds(edge);
+          for (int c = 0; c < children.size(); c++) {
+            long child = children.get(c);
+            if (!nodesHandled.contains(child)) {
+              nodesToProcess.add(child);
+              depthOf.put(child, nextDepth);
+            }
+          }
+        }
+      }
+    }
+    return depthOf;
+  }
+
+  // persistence, for TextGraphCodec: the spans in order, positions as deltas
+
+  void write(DataOutput out) throws IOException {
+    writeVarInt(out, markupIds.length);
+    long previousMarkup = 0;
+    int previousStart = 0;
+    for (int i = 0; i < markupIds.length; i++) {
+      writeSignedVarLong(out, markupIds[i] - previousMarkup);
+      writeVarInt(out, starts[i] - previousStart);
+      writeVarInt(out, ends[i] - starts[i]);
+      writeVarInt(out, depths[i] == Integer.MAX_VALUE ? 0 : depths[i] + 1);
+      int[] spanRuns = runs[i];
+      writeVarInt(out, spanRuns == null ? 0 : spanRuns.length / 2);
+      if (spanRuns != null) {
+        for (int r = 0; r < spanRuns.length; r++) {
+          writeVarInt(out, spanRuns[r] - (r == 0 ? starts[i] : spanRuns[r - 1]));
+        }
+      }
+      previousMarkup = markupIds[i];
+      previousStart = starts[i];
+    }
+  }
+
+  static MarkupSpanIndex read(DataInput in, long[] textOrder) throws IOException {
+    int count = readVarInt(in);
+    long[] markupIds = new long[count];
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    int[] depths = new int[count];
+    int[][] runs = new int[count][];
+    long markup = 0;
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      markup += readSignedVarLong(in);
+      start += readVarInt(in);
+      markupIds[i] = markup;
+      starts[i] = start;
+      ends[i] = start + readVarInt(in);
+      int depth = readVarInt(in);
+      depths[i] = depth == 0 ? Integer.MAX_VALUE : depth - 1;
+      int runCount = readVarInt(in);
+      if (runCount > 0) {
+        int[] spanRuns = new int[2 * runCount];
+        for (int r = 0; r < spanRuns.length; r++) {
+          spanRuns[r] = (r == 0 ? start : spanRuns[r - 1]) + readVarInt(in);
+        }
+        runs[i] = spanRuns;
+      }
+    }
+    return new MarkupSpanIndex(textOrder, markupIds, starts, ends, depths, runs);
+  }
+}
@@ -21,7 +21,9 @@ package nl.knaw.huc.di.tag.model.graph;
  */
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
@@ -32,10 +34,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
-import com.sleepycat.persist.model.NotPersistent;
-import com.sleepycat.persist.model.Persistent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +49,7 @@ import nl.knaw.huc.di.tag.model.graph.edges.LayerEdge;
 import nl.knaw.huc.di.tag.model.graph.edges.ListItemEdge;
 import nl.knaw.huc.di.tag.tagml.TAGML;
 import nl.knaw.huc.di.tag.tagml.importer.AnnotationInfo;
+import nl.knaw.huygens.alexandria.LongObjectHashMap;
 import nl.knaw.huygens.alexandria.storage.TAGMarkup;
 
 import static java.util.Collections.singleton;
@@ -59,9 +61,8 @@ import static nl.knaw.huc.di.tag.model.graph.edges.EdgeType.hasText;
 import static nl.knaw.huc.di.tag.model.graph.edges.Edges.markupContinuation;
 import static nl.knaw.huygens.alexandria.StreamUtil.stream;
 
-@Persistent
-public class TextGraph extends HyperGraph<Long, Edge> {
-  @NotPersistent Logger LOG = LoggerFactory.getLogger(getClass());
+public class TextGraph extends LongHyperGraph<Edge> {
+  Logger LOG = LoggerFactory.getLogger(getClass());
 
   String id = "";
   Long documentNode;
@@ -69,12 +70,21 @@ public class TextGraph extends HyperGraph<Long, Edge> {
   Map<String, String> parentLayerMap = new HashMap<>();
   Long firstTextNodeId;
 
-  public TextGraph() {
-    super(GraphType.ORDERED);
-  }
+  // the text node ids in text order, for as long as the edges are not changed
+  private long[] textOrder;
+  private int textOrderModifications;
+  private MarkupSpanIndex markupSpanIndex;
+  private int markupSpanIndexModifications;
+  // the discontinuous markup groups by the ids of their markup nodes, built from the continuation
+  // edges when first needed and kept up to date by continueMarkup
+  private LongObjectHashMap<ContinuationGroup> continuationGroups;
+
+  public TextGraph() {}
 
   public TextGraph setLayerRootMarkup(final String layerName, final Long markupNodeId) {
+    checkNotFrozen();
     layerRootMap.put(layerName, markupNodeId);
+    markupSpanIndex = null;
     //    addChildMarkup(documentNode, TAGML.DEFAULT_LAYER, markupNodeId);
     return this;
   }
@@ -86,54 +96,162 @@ public class TextGraph extends HyperGraph<Long, Edge> {
     return this;
   }
 
+  /**
+   * Link the markup to the text node. When the text node directly follows the last text node that
+   * was linked to this markup in this layer, it is added as a target to the same hyperedge, so a
+   * markup has one hyperedge per layer for every run of text nodes without child markup in between.
+   */
   public TextGraph linkMarkupToTextNodeForLayer(
       final Long markupId, final Long textNodeId, final String layerName) {
-    //    List<LayerEdge> existingEdges = existingMarkupToTextNodeEdgesForMarkupAndLayer(markupId,
-    // layerName);
-    //    if (existingEdges.isEmpty()) {
-    final LayerEdge edge = Edges.markupToText(layerName);
-    addDirectedHyperEdge(edge, edge.label(), markupId, textNodeId);
-
-    //    } else if (existingEdges.size() > 1) {
-    //      throw new RuntimeException("There should be only one outgoing markupToText hyperedge for
-    // this layer!");
-
-    //    } else {
-    //      final LayerEdge existingEdge = existingEdges.get(0);
-    //      addTargetsToHyperEdge(existingEdge, textNodeId);
-    //    }
-    return this;
-  }
+    Edge lastEdge = getLastOutgoingEdge(markupId);
+    if (lastEdge instanceof LayerEdge
+        && ((LayerEdge) lastEdge).hasType(hasText)
+        && ((LayerEdge) lastEdge).hasLayer(layerName)) {
+      addTargetsToHyperEdge(lastEdge, textNodeId);
 
-  private List<LayerEdge> existingMarkupToTextNodeEdgesForMarkupAndLayer(
-      final Long markupId, final String layerName) {
-    return getOutgoingEdges(markupId).stream()
-        .filter(LayerEdge.class::isInstance)
-        .map(LayerEdge.class::cast)
-        .filter(e -> e.hasType(hasText))
-        .filter(e -> e.hasLayer(layerName))
-        .collect(toList());
+    } else {
+      final LayerEdge edge = Edges.markupToText(layerName);
+      addDirectedHyperEdge(edge, edge.label(), markupId, textNodeId);
+    }
+    return this;
   }
 
   public void unlinkMarkupFromTextNodeForLayer(
       final Long markupId, final Long textNodeId, final String layerName) {
-    List<LayerEdge> existingEdges =
-        existingMarkupToTextNodeEdgesForMarkupAndLayer(markupId, layerName);
-    if (existingEdges.isEmpty()) {
-      throw new RuntimeException("No edge found to unlink!");
+    Edge existingEdge =
+        getOutgoingEdges(markupId, hasText, layerName).stream()
+            .filter(e -> getTargets(e).contains(textNodeId))
+            .findFirst()
+            .orElseThrow(() -> new RuntimeException("No edge found to unlink!"));
+    removeTargetsFromHyperEdge(existingEdge, textNodeId);
+  }
 
-    } else if (existingEdges.size() > 1) {
-      throw new RuntimeException(
-          "There should be only one outgoing markupToText hyperedge for this layer!");
+  /**
+   * The outgoing edges of the node with the given type: annotation, list item or continuation
+   * edges. For the layer edge types, use {@link #getOutgoingEdges(Long, EdgeType, String)}.
+   */
+  public Collection<Edge> getOutgoingEdges(final Long node, final EdgeType edgeType) {
+    return getOutgoingEdges(node, nonLayerLabel(edgeType));
+  }
 
-    } else {
-      final LayerEdge existingEdge = existingEdges.get(0);
-      removeTargetsFromHyperEdge(existingEdge, textNodeId);
+  /** The outgoing layer edges of the node with the given type in the given layer. */
+  public Collection<Edge> getOutgoingEdges(
+      final Long node, final EdgeType edgeType, final String layerName) {
+    return getOutgoingEdges(node, LayerEdge.label(edgeType, layerName));
+  }
+
+  /**
+   * The incoming edges of the node with the given type: annotation, list item or continuation
+   * edges. For the layer edge types, use {@link #getIncomingEdges(Long, EdgeType, String)}.
+   */
+  public Collection<Edge> getIncomingEdges(final Long node, final EdgeType edgeType) {
+    return getIncomingEdges(node, nonLayerLabel(edgeType));
+  }
+
+  /** The incoming layer edges of the node with the given type in the given layer. */
+  public Collection<Edge> getIncomingEdges(
+      final Long node, final EdgeType edgeType, final String layerName) {
+    return getIncomingEdges(node, LayerEdge.label(edgeType, layerName));
+  }
+
+  private static String nonLayerLabel(final EdgeType edgeType) {
+    if (edgeType == EdgeType.hasMarkup || edgeType == EdgeType.hasText) {
+      throw new IllegalArgumentException(edgeType + " edges are looked up by layer");
     }
+    return edgeType.name();
   }
 
   public Stream<Long> getTextNodeIdStream() {
-    return stream(new TextNodeIdChainIterator(this, documentNode));
+    return getTextNodeIdsInTextOrder().boxed();
+  }
+
+  /**
+   * The ids of the text nodes in text order: depth first from the document node, following the
+   * layer edges in the order they were added, every text node the first time it is reached. The
+   * order is kept with the graph (and stored with it by {@link TextGraphCodec}), and only walked
+   * again after the edges have changed.
+   */
+  public LongStream getTextNodeIdsInTextOrder() {
+    return Arrays.stream(textOrder());
+  }
+
+  long[] textOrder() {
+    long[] order = textOrder;
+    int modifications = getModifications();
+    if (order == null || textOrderModifications != modifications) {
+      order = walkTextOrder();
+      textOrderModifications = modifications;
+      textOrder = order;
+    }
+    return order;
+  }
+
+  void restoreTextOrder(long[] order) {
+    textOrderModifications = getModifications();
+    textOrder = order;
+  }
+
+  MarkupSpanIndex markupSpanIndex() {
+    long[] order = textOrder();
+    MarkupSpanIndex index = markupSpanIndex;
+    int modifications = getModifications();
+    if (index == null || markupSpanIndexModifications != modifications) {
+      index = MarkupSpanIndex.build(this, order);
+      markupSpanIndexModifications = modifications;
+      markupSpanIndex = index;
+    }
+    return index;
+  }
+
+  void restoreMarkupSpanIndex(MarkupSpanIndex index) {
+    markupSpanIndexModifications = getModifications();
+    markupSpanIndex = index;
+  }
+
+  private long[] walkTextOrder() {
+    if (documentNode == null) {
+      return new long[0];
+    }
+    long[] order = new long[16];
+    int orderSize = 0;
+    LongObjectHashMap<Boolean> handled = new LongObjectHashMap<>();
+    // the nodes still to visit, the next one on top
+    long[] stack = new long[16];
+    boolean[] isText = new boolean[16];
+    int stackSize = 0;
+    stack[stackSize++] = documentNode;
+    while (stackSize > 0) {
+      stackSize--;
+      long node = stack[stackSize];
+      if (isText[stackSize]) {
+        if (handled.put(node, Boolean.TRUE) == null) {
+          if (orderSize == order.length) {
+            order = Arrays.copyOf(order, orderSize * 2);
+          }
+          order[orderSize++] = node;
+        }
+        continue;
+      }
+      Edge[] edges = getOutgoingEdges(node).toArray(new Edge[0]);
+      for (int e = edges.length - 1; e >= 0; e--) {
+        if (!(edges[e] instanceof LayerEdge)) {
+          continue;
+        }
+        boolean text = ((LayerEdge) edges[e]).hasType(hasText);
+        TargetIds targets = getTargetIds(edges[e]);
+        if (stackSize + targets.size() > stack.length) {
+          int capacity = Math.max(stack.length * 2, stackSize + targets.size());
+          stack = Arrays.copyOf(stack, capacity);
+          isText = Arrays.copyOf(isText, capacity);
+        }
+        for (int t = targets.size() - 1; t >= 0; t--) {
+          stack[stackSize] = targets.get(t);
+          isText[stackSize] = text;
+          stackSize++;
+        }
+      }
+    }
+    return Arrays.copyOf(order, orderSize);
   }
 
   public Set<String> getLayerNames() {
@@ -149,10 +267,8 @@ public class TextGraph extends HyperGraph<Long, Edge> {
   }
 
   private boolean belongsToLayer(final Long id, final String layerName) {
-    return getIncomingEdges(id).stream()
-        .filter(LayerEdge.class::isInstance)
-        .map(LayerEdge.class::cast)
-        .anyMatch(e -> e.hasLayer(layerName));
+    return !getIncomingEdges(id, hasText, layerName).isEmpty()
+        || !getIncomingEdges(id, EdgeType.hasMarkup, layerName).isEmpty();
   }
 
   public Stream<Long> getMarkupIdStreamForTextNodeId(
@@ -229,7 +345,32 @@ public class TextGraph extends HyperGraph<Long, Edge> {
         });
   }
 
+  /**
+   * The markup that covers the text node, ordered by depth (the distance from the layer roots) and
+   * then by id. Looked up in the {@link MarkupSpanIndex}, that, like the text order, is kept with
+   * the graph; while the graph is being changed, and for text nodes outside of the text order, it
+   * is looked up by walking the graph.
+   */
   public Stream<Long> getMarkupIdStreamForTextNodeId(final Long textNodeId) {
+    MarkupSpanIndex index = currentMarkupSpanIndex();
+    long[] covering = index == null ? null : index.getMarkupIdsCovering(textNodeId);
+    return covering != null
+        ? Arrays.stream(covering).boxed()
+        : walkMarkupIdStreamForTextNodeId(textNodeId);
+  }
+
+  // The index is only built here for a frozen graph: an importer that looks up the markup of a
+  // text node after every few edges would otherwise rebuild it for every lookup. Otherwise it is
+  // used when it is still up to date, as it is after the graph was decoded or encoded.
+  private MarkupSpanIndex currentMarkupSpanIndex() {
+    if (isFrozen()) {
+      return markupSpanIndex();
+    }
+    MarkupSpanIndex index = markupSpanIndex;
+    return index != null && markupSpanIndexModifications == getModifications() ? index : null;
+  }
+
+  Stream<Long> walkMarkupIdStreamForTextNodeId(final Long textNodeId) {
     Set<Long> markupIds = new HashSet<>();
     Set<Long> nodesHandled = new HashSet<>();
     nodesHandled.add(documentNode);
@@ -335,6 +476,7 @@ public class TextGraph extends HyperGraph<Long, Edge> {
   }
 
   public TextGraph setFirstTextNodeId(final Long firstTextNodeId) {
+    checkNotFrozen();
     this.firstTextNodeId = firstTextNodeId;
     return this;
   }
@@ -348,7 +490,35 @@ public class TextGraph extends HyperGraph<Long, Edge> {
   }
 
   public void setDocumentRoot(final Long node) {
+    checkNotFrozen();
     documentNode = node;
+    textOrder = null;
+    markupSpanIndex = null;
+  }
+
+  /**
+   * Make the graph read-only, with its edges in arrays (see {@link LongHyperGraph#freeze()}). The
+   * text order, the markup span index and the continuation groups are made first, so reading a
+   * frozen graph changes nothing, and it can be read by several threads at once.
+   */
+  @Override
+  public void freeze() {
+    if (!isFrozen()) {
+      textOrder();
+      markupSpanIndex();
+      continuationGroups();
+      layerRootMap = Collections.unmodifiableMap(layerRootMap);
+      parentLayerMap = Collections.unmodifiableMap(parentLayerMap);
+      super.freeze();
+    }
+  }
+
+  /**
+   * A graph with the same nodes and edges that can be changed. A frozen graph may be read by other
+   * threads, so it is copied instead of thawed; a graph that is not frozen is returned as it is.
+   */
+  public TextGraph unfrozen() {
+    return isFrozen() ? TextGraphCodec.decode(TextGraphCodec.encode(this), false) : this;
   }
 
   public void linkParentlessLayerRootsToDocument() {
@@ -363,21 +533,90 @@ public class TextGraph extends HyperGraph<Long, Edge> {
   }
 
   public void continueMarkup(TAGMarkup suspendedMarkup, TAGMarkup resumedMarkup) {
+    continueMarkup(suspendedMarkup.getDbId(), resumedMarkup.getDbId());
+  }
+
+  public void continueMarkup(final Long suspendedMarkupId, final Long resumedMarkupId) {
     ContinuationEdge edge = markupContinuation();
-    addDirectedHyperEdge(edge, edge.getLabel(), suspendedMarkup.getDbId(), resumedMarkup.getDbId());
+    addDirectedHyperEdge(edge, edge.getLabel(), suspendedMarkupId, resumedMarkupId);
+    if (continuationGroups != null) {
+      addToContinuationGroup(continuationGroups, suspendedMarkupId, resumedMarkupId);
+    }
+  }
+
+  /**
+   * The id of the discontinuous markup that the markup node is a part of: the id of its first markup
+   * node. For continuous markup, this is the id of the markup node itself.
+   */
+  public Long getContinuationGroupId(final Long markupId) {
+    ContinuationGroup group = continuationGroups().get(markupId);
+    return group == null ? markupId : group.members[0];
+  }
+
+  /**
+   * The markup nodes of the discontinuous markup that the markup node is a part of, in the order
+   * they were continued. For continuous markup, this is just the markup node itself.
+   */
+  public LongStream getContinuationGroupMarkupIds(final Long markupId) {
+    ContinuationGroup group = continuationGroups().get(markupId);
+    return group == null
+        ? LongStream.of(markupId)
+        : Arrays.stream(Arrays.copyOf(group.members, group.size));
+  }
+
+  private LongObjectHashMap<ContinuationGroup> continuationGroups() {
+    if (continuationGroups == null) {
+      LongObjectHashMap<ContinuationGroup> groups = new LongObjectHashMap<>();
+      // follow every chain of continuation edges from its first markup node
+      for (long first : getNodesWithOutgoingEdges()) {
+        if (getOutgoingEdges(first, EdgeType.continuesIn).isEmpty()
+            || !getIncomingEdges(first, EdgeType.continuesIn).isEmpty()) {
+          continue;
+        }
+        long markupId = first;
+        Long next = getContinuedMarkupId(markupId).orElse(null);
+        while (next != null && !groups.containsKey(next)) {
+          addToContinuationGroup(groups, markupId, next);
+          markupId = next;
+          next = getContinuedMarkupId(markupId).orElse(null);
+        }
+      }
+      continuationGroups = groups;
+    }
+    return continuationGroups;
+  }
+
+  private static void addToContinuationGroup(
+      LongObjectHashMap<ContinuationGroup> groups, long suspendedMarkupId, long resumedMarkupId) {
+    ContinuationGroup suspendedGroup = groups.get(suspendedMarkupId);
+    ContinuationGroup resumedGroup = groups.get(resumedMarkupId);
+    if (suspendedGroup == null) {
+      suspendedGroup = new ContinuationGroup();
+      suspendedGroup.add(suspendedMarkupId);
+      groups.put(suspendedMarkupId, suspendedGroup);
+    }
+    if (resumedGroup == null) {
+      suspendedGroup.add(resumedMarkupId);
+      groups.put(resumedMarkupId, suspendedGroup);
+
+    } else if (resumedGroup != suspendedGroup) {
+      // the resumed markup was continued before it was resumed: join the two groups
+      for (int i = 0; i < resumedGroup.size; i++) {
+        suspendedGroup.add(resumedGroup.members[i]);
+        groups.put(resumedGroup.members[i], suspendedGroup);
+      }
+    }
   }
 
   public Optional<Long> getContinuedMarkupId(final Long id) {
-    return getOutgoingEdges(id).stream()
-        .filter(ContinuationEdge.class::isInstance)
+    return getOutgoingEdges(id, EdgeType.continuesIn).stream()
         .map(this::getTargets)
         .flatMap(Collection::stream)
         .findFirst();
   }
 
   public Optional<Long> getPrecedingMarkupId(final Long id) {
-    return getIncomingEdges(id).stream()
-        .filter(ContinuationEdge.class::isInstance)
+    return getIncomingEdges(id, EdgeType.continuesIn).stream()
         .map(this::getSource)
         .findFirst();
   }
@@ -398,4 +637,17 @@ public class TextGraph extends HyperGraph<Long, Edge> {
     Long annotationValueNode = targetAnnotation.getNodeId();
     addDirectedHyperEdge(edge, edge.getLabel(), sourceNode, annotationValueNode);
   }
+
+  /** The markup nodes of one discontinuous markup, in the order they were continued. */
+  private static class ContinuationGroup {
+    private long[] members = new long[4];
+    private int size = 0;
+
+    void add(long markupId) {
+      if (size == members.length) {
+        members = Arrays.copyOf(members, size * 2);
+      }
+      members[size++] = markupId;
+    }
+  }
 }
@@ -0,0 +1,369 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.ContinuationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+import nl.knaw.huc.di.tag.model.graph.edges.EdgeType;
+import nl.knaw.huc.di.tag.model.graph.edges.LayerEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.ListItemEdge;
+import nl.knaw.huygens.alexandria.storage.AnnotationType;
+
+import static nl.knaw.huygens.alexandria.DataIOUtil.readEnum;
+import static nl.knaw.huygens.alexandria.DataIOUtil.readSignedVarLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.readString;
+import static nl.knaw.huygens.alexandria.DataIOUtil.readVarInt;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeEnum;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeSignedVarLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeString;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeVarInt;
+
+/**
+ * Binary encoding of a {@link TextGraph}, independent of the BDB class catalog.
+ *
+ * <p>Node ids are written in ascending order as varint deltas, and edge targets as deltas from the
+ * edge source. Edge kinds are one byte tags, and labels, layer names and other strings are written
+ * once and then referred to by number. The edges are written in the order of the sorted source
+ * nodes, which also gives the order of the outgoing edge lists; the incoming edge lists are written
+ * as edge indexes, so the order of both survives the round trip.
+ *
+ * <p>Since format version 3 the text order of the text nodes follows, as varint deltas, so that it
+ * does not have to be walked again after decoding, and since version 4 the markup span index.
+ * Version 5 adds whether the graph was frozen, and a frozen graph is decoded as a frozen graph.
+ * Version 2 to 4 data is still read.
+ */
+public class TextGraphCodec {
+  public static final int FORMAT_VERSION = 5;
+  private static final int MIN_FORMAT_VERSION = 2;
+
+  private static final byte LAYER_EDGE = 0;
+  private static final byte ANNOTATION_EDGE = 1;
+  private static final byte CONTINUATION_EDGE = 2;
+  private static final byte LIST_ITEM_EDGE = 3;
+
+  public static byte[] encode(TextGraph textGraph) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      write(textGraph, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static TextGraph decode(byte[] data) {
+    return decode(data, true);
+  }
+
+  static TextGraph decode(byte[] data, boolean keepFrozen) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+      return read(in, keepFrozen);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static void write(TextGraph textGraph, DataOutput out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    StringWriter strings = new StringWriter(out);
+    strings.write(textGraph.id);
+    writeNullableId(out, textGraph.documentNode);
+    writeNullableId(out, textGraph.firstTextNodeId);
+    writeVarInt(out, textGraph.layerRootMap.size());
+    for (Map.Entry<String, Long> entry : textGraph.layerRootMap.entrySet()) {
+      strings.write(entry.getKey());
+      writeNullableId(out, entry.getValue());
+    }
+    writeVarInt(out, textGraph.parentLayerMap.size());
+    for (Map.Entry<String, String> entry : textGraph.parentLayerMap.entrySet()) {
+      strings.write(entry.getKey());
+      strings.write(entry.getValue());
+    }
+
+    long[] nodes = textGraph.getNodeIds();
+    Arrays.sort(nodes);
+    writeVarInt(out, nodes.length);
+    long previous = 0;
+    for (long node : nodes) {
+      writeSignedVarLong(out, node - previous);
+      strings.write(textGraph.getNodeLabel(node));
+      previous = node;
+    }
+
+    long[] sources = textGraph.getNodesWithOutgoingEdges();
+    Arrays.sort(sources);
+    Map<Edge, Integer> edgeIndex = new IdentityHashMap<>();
+    List<Edge> edges = new ArrayList<>();
+    for (long source : sources) {
+      for (Edge edge : textGraph.getOutgoingEdges(source)) {
+        if (!edgeIndex.containsKey(edge)) {
+          edgeIndex.put(edge, edges.size());
+          edges.add(edge);
+        }
+      }
+    }
+    writeVarInt(out, edges.size());
+    previous = 0;
+    for (Edge edge : edges) {
+      writeEdge(out, strings, edge);
+      strings.write(textGraph.getEdgeLabel(edge));
+      long source = textGraph.getSource(edge);
+      writeSignedVarLong(out, source - previous);
+      Collection<Long> targets = textGraph.getTargets(edge);
+      writeVarInt(out, targets.size());
+      for (Long target : targets) {
+        writeSignedVarLong(out, target - source);
+      }
+      previous = source;
+    }
+
+    long[] targets = textGraph.getNodesWithIncomingEdges();
+    Arrays.sort(targets);
+    writeVarInt(out, targets.length);
+    previous = 0;
+    for (long target : targets) {
+      writeSignedVarLong(out, target - previous);
+      Collection<Edge> incoming = textGraph.getIncomingEdges(target);
+      writeVarInt(out, incoming.size());
+      int previousIndex = 0;
+      for (Edge edge : incoming) {
+        int index = edgeIndex.get(edge);
+        writeSignedVarLong(out, index - previousIndex);
+        previousIndex = index;
+      }
+      previous = target;
+    }
+
+    long[] textOrder = textGraph.textOrder();
+    writeVarInt(out, textOrder.length);
+    previous = 0;
+    for (long textNode : textOrder) {
+      writeSignedVarLong(out, textNode - previous);
+      previous = textNode;
+    }
+    textGraph.markupSpanIndex().write(out);
+    out.writeBoolean(textGraph.isFrozen());
+  }
+
+  public static TextGraph read(DataInput in) throws IOException {
+    return read(in, true);
+  }
+
+  private static TextGraph read(DataInput in, boolean keepFrozen) throws IOException {
+    int formatVersion = in.readInt();
+    if (formatVersion < MIN_FORMAT_VERSION || formatVersion > FORMAT_VERSION) {
+      throw new IOException("unsupported TextGraph format version " + formatVersion);
+    }
+    StringReader strings = new StringReader(in);
+    TextGraph textGraph = new TextGraph();
+    textGraph.id = strings.read();
+    textGraph.documentNode = readNullableId(in);
+    textGraph.firstTextNodeId = readNullableId(in);
+    int layerRoots = readVarInt(in);
+    for (int i = 0; i < layerRoots; i++) {
+      textGraph.layerRootMap.put(strings.read(), readNullableId(in));
+    }
+    int parentLayers = readVarInt(in);
+    for (int i = 0; i < parentLayers; i++) {
+      textGraph.parentLayerMap.put(strings.read(), strings.read());
+    }
+
+    int nodeCount = readVarInt(in);
+    long node = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      node += readSignedVarLong(in);
+      textGraph.addNode(node, strings.read());
+    }
+
+    int edgeCount = readVarInt(in);
+    Edge[] edges = new Edge[edgeCount];
+    Map<Long, List<Edge>> outgoingEdges = new LinkedHashMap<>();
+    long source = 0;
+    for (int i = 0; i < edgeCount; i++) {
+      Edge edge = readEdge(in, strings);
+      String label = strings.read();
+      source += readSignedVarLong(in);
+      int targetCount = readVarInt(in);
+      long[] targets = new long[targetCount];
+      for (int t = 0; t < targetCount; t++) {
+        targets[t] = source + readSignedVarLong(in);
+      }
+      textGraph.restoreHyperEdge(edge, label, source, targets);
+      outgoingEdges.computeIfAbsent(source, s -> new ArrayList<>()).add(edge);
+      edges[i] = edge;
+    }
+    outgoingEdges.forEach(textGraph::restoreOutgoingEdges);
+
+    int targetCount = readVarInt(in);
+    long target = 0;
+    for (int i = 0; i < targetCount; i++) {
+      target += readSignedVarLong(in);
+      int size = readVarInt(in);
+      List<Edge> incoming = new ArrayList<>(size);
+      int index = 0;
+      for (int e = 0; e < size; e++) {
+        index += (int) readSignedVarLong(in);
+        incoming.add(edges[index]);
+      }
+      textGraph.restoreIncomingEdges(target, incoming);
+    }
+
+    if (formatVersion >= 3) {
+      long[] textOrder = new long[readVarInt(in)];
+      long textNode = 0;
+      for (int i = 0; i < textOrder.length; i++) {
+        textNode += readSignedVarLong(in);
+        textOrder[i] = textNode;
+      }
+      textGraph.restoreTextOrder(textOrder);
+      if (formatVersion >= 4) {
+        textGraph.restoreMarkupSpanIndex(MarkupSpanIndex.read(in, textOrder));
+      }
+    }
+    if (formatVersion >= 5 && in.readBoolean() && keepFrozen) {
+      textGraph.freeze();
+    }
+    return textGraph;
+  }
+
+  private static void writeNullableId(DataOutput out, Long id) throws IOException {
+    out.writeBoolean(id != null);
+    if (id != null) {
+      writeSignedVarLong(out, id);
+    }
+  }
+
+  private static Long readNullableId(DataInput in) throws IOException {
+    return in.readBoolean() ? readSignedVarLong(in) : null;
+  }
+
+  private static void writeEdge(DataOutput out, StringWriter strings, Edge edge)
+      throws IOException {
+    if (edge instanceof LayerEdge) {
+      LayerEdge layerEdge = (LayerEdge) edge;
+      out.writeByte(LAYER_EDGE);
+      writeEnum(out, layerEdge.getEdgeType());
+      strings.write(layerEdge.getLayerName());
+
+    } else if (edge instanceof AnnotationEdge) {
+      AnnotationEdge annotationEdge = (AnnotationEdge) edge;
+      out.writeByte(ANNOTATION_EDGE);
+      writeEnum(out, annotationEdge.getAnnotationType());
+      strings.write(annotationEdge.getField());
+      strings.write(annotationEdge.getId());
+
+    } else if (edge instanceof ContinuationEdge) {
+      out.writeByte(CONTINUATION_EDGE);
+
+    } else if (edge instanceof ListItemEdge) {
+      ListItemEdge listItemEdge = (ListItemEdge) edge;
+      out.writeByte(LIST_ITEM_EDGE);
+      writeEnum(out, listItemEdge.getAnnotationType());
+      strings.write(listItemEdge.getId());
+
+    } else {
+      throw new IOException("unhandled edge class: " + edge.getClass());
+    }
+  }
+
+  private static Edge readEdge(DataInput in, StringReader strings) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case LAYER_EDGE:
+        return new LayerEdge(readEnum(in, EdgeType.class), strings.read());
+      case ANNOTATION_EDGE:
+        return new AnnotationEdge(
+            readEnum(in, AnnotationType.class), strings.read(), strings.read());
+      case CONTINUATION_EDGE:
+        return new ContinuationEdge();
+      case LIST_ITEM_EDGE:
+        return new ListItemEdge(readEnum(in, AnnotationType.class), strings.read());
+      default:
+        throw new IOException("unknown edge type " + type);
+    }
+  }
+
+  // Strings are written as 0 for null, 1 followed by the string the first time it occurs, and
+  // 2 + its number every time after that.
+  private static class StringWriter {
+    private final DataOutput out;
+    private final Map<String, Integer> numbers = new HashMap<>();
+
+    StringWriter(DataOutput out) {
+      this.out = out;
+    }
+
+    void write(String value) throws IOException {
+      if (value == null) {
+        writeVarInt(out, 0);
+        return;
+      }
+      Integer number = numbers.get(value);
+      if (number == null) {
+        numbers.put(value, numbers.size());
+        writeVarInt(out, 1);
+        writeString(out, value);
+      } else {
+        writeVarInt(out, number + 2);
+      }
+    }
+  }
+
+  private static class StringReader {
+    private final DataInput in;
+    private final List<String> strings = new ArrayList<>();
+
+    StringReader(DataInput in) {
+      this.in = in;
+    }
+
+    String read() throws IOException {
+      int code = readVarInt(in);
+      if (code == 0) {
+        return null;
+      }
+      if (code == 1) {
+        String value = readString(in);
+        strings.add(value);
+        return value;
+      }
+      return strings.get(code - 2);
+    }
+  }
+}
@@ -20,23 +20,25 @@ package nl.knaw.huc.di.tag.model.graph;
  * #L%
  */
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
 
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
 import nl.knaw.huc.di.tag.model.graph.edges.EdgeType;
 import nl.knaw.huc.di.tag.model.graph.edges.LayerEdge;
 
-import static java.util.stream.Collectors.toList;
-
 class TextNodeIdIterator implements Iterator<Long> {
   private final TextGraph textGraph;
-  private final List<TypedNode> nodesToProcess = new ArrayList<>();
+  private final Deque<TypedNode> nodesToProcess = new ArrayDeque<>();
   private final Set<Long> textHandled = new HashSet<>();
+  // the markup nodes whose children were added to nodesToProcess
+  private final Set<Long> markupHandled = new HashSet<>();
   private final Set<String> layers;
 
   private Optional<Long> nextTextNodeId;
@@ -45,7 +47,7 @@ class TextNodeIdIterator implements Iterator<Long> {
       final TextGraph textGraph, final Long markupId, final Set<String> layers) {
     this.textGraph = textGraph;
     this.layers = layers;
-    this.nodesToProcess.add(0, new TypedNode(NodeType.markup, markupId));
+    this.nodesToProcess.push(new TypedNode(NodeType.markup, markupId));
     this.nextTextNodeId = calcNextTextNodeId();
   }
 
@@ -63,81 +65,46 @@ class TextNodeIdIterator implements Iterator<Long> {
   }
 
   private Optional<Long> calcNextTextNodeId() {
-    Optional<Long> nextTextNodeId = Optional.empty();
-    if (nodesToProcess.isEmpty()) {
-      nextTextNodeId = Optional.empty();
-
-    } else {
-      TypedNode nextTypedNode = nodesToProcess.remove(0);
+    while (!nodesToProcess.isEmpty()) {
+      TypedNode nextTypedNode = nodesToProcess.pop();
       Long nextId = nextTypedNode.id;
       if (nextTypedNode.isText()) {
-        if (textHandled.contains(nextId)) {
-          nextTextNodeId = calcNextTextNodeId();
-        } else {
-          textHandled.add(nextId);
-          nextTextNodeId = Optional.of(nextId);
+        if (textHandled.add(nextId)) {
+          return Optional.of(nextId);
         }
-      } else {
+      } else if (!markupHandled.contains(nextId)) {
         List<TypedNode> children = getChildren(nextId);
-        nodesToProcess.addAll(0, children);
-        nextTextNodeId = calcNextTextNodeId();
+        for (int i = children.size() - 1; i >= 0; i--) {
+          nodesToProcess.push(children.get(i));
+        }
       }
     }
-    return nextTextNodeId;
+    return Optional.empty();
   }
 
+  // the children of all the markup nodes of the discontinuous markup that the markup node is a part
+  // of, after which the children of none of these markup nodes have to be added again
   private List<TypedNode> getChildren(final Long id) {
-    return getContinuedMarkupIds(id).stream()
-        .flatMap(
-            markupId ->
-                textGraph.getOutgoingEdges(markupId).stream()
-                    .filter(LayerEdge.class::isInstance)
-                    .map(LayerEdge.class::cast)
-                    .filter(e -> e.hasAnyLayerFrom(layers))
-                    .flatMap(this::toTypedNodeStream))
-        .collect(toList());
-  }
-
-  private List<Long> getContinuedMarkupIds(final Long id) {
-    List<Long> precedingMarkupIds = getPrecedingMarkupIds(id);
-    List<Long> continuedMarkupIds = new ArrayList<>(precedingMarkupIds);
-    continuedMarkupIds.add(id);
-    List<Long> succeedingMarkupIds = getSucceedingMarkupIds(id);
-    continuedMarkupIds.addAll(succeedingMarkupIds);
-    return continuedMarkupIds;
-  }
-
-  private List<Long> getPrecedingMarkupIds(final Long id) {
-    List<Long> precedingMarkupIds = new ArrayList<>();
+    List<TypedNode> children = new ArrayList<>();
     textGraph
-        .getPrecedingMarkupId(id)
-        .ifPresent(
-            precedingMarkupId -> {
-              precedingMarkupIds.add(0, precedingMarkupId);
-              precedingMarkupIds.addAll(0, getPrecedingMarkupIds(precedingMarkupId));
+        .getContinuationGroupMarkupIds(id)
+        .forEach(
+            markupId -> {
+              markupHandled.add(markupId);
+              for (Edge edge : textGraph.getOutgoingEdges(markupId)) {
+                if (edge instanceof LayerEdge && ((LayerEdge) edge).hasAnyLayerFrom(layers)) {
+                  addTypedNodes(children, (LayerEdge) edge);
+                }
+              }
             });
-    return precedingMarkupIds;
+    return children;
   }
 
-  private List<Long> getSucceedingMarkupIds(final Long id) {
-    List<Long> succeedingMarkupIds = new ArrayList<>();
-    textGraph
-        .getContinuedMarkupId(id)
-        .ifPresent(
-            continuedMarkupId -> {
-              succeedingMarkupIds.add(continuedMarkupId);
-              succeedingMarkupIds.addAll(getSucceedingMarkupIds(continuedMarkupId));
-            });
-    return succeedingMarkupIds;
-  }
-
-  private List<TypedNode> getContinuationChildren(final Long id) {
-    Optional<Long> continuedMarkup = textGraph.getContinuedMarkupId(id);
-    return continuedMarkup.isPresent() ? getChildren(continuedMarkup.get()) : new ArrayList<>();
-  }
-
-  private Stream<TypedNode> toTypedNodeStream(final LayerEdge layerEdge) {
+  private void addTypedNodes(final List<TypedNode> typedNodes, final LayerEdge layerEdge) {
     NodeType targetType = layerEdge.hasType(EdgeType.hasText) ? NodeType.text : NodeType.markup;
-    return textGraph.getTargets(layerEdge).stream().map(id -> new TypedNode(targetType, id));
+    LongHyperGraph.TargetIds targets = textGraph.getTargetIds(layerEdge);
+    for (int t = 0; t < targets.size(); t++) {
+      typedNodes.add(new TypedNode(targetType, targets.get(t)));
+    }
   }
 }
@@ -1,6 +1,9 @@
 package nl.knaw.huc.di.tag.model.graph.edges;
 
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sleepycat.persist.model.Persistent;
 
@@ -25,6 +28,15 @@ import com.sleepycat.persist.model.Persistent;
  */
 @Persistent
 public class LayerEdge implements Edge {
+  // the labels are shared by all edges with the same type and layer
+  private static final Map<EdgeType, Map<String, String>> LABELS = new EnumMap<>(EdgeType.class);
+
+  static {
+    for (EdgeType type : EdgeType.values()) {
+      LABELS.put(type, new ConcurrentHashMap<>());
+    }
+  }
+
   private final EdgeType edgeType;
   private final String layerName;
 
@@ -51,7 +63,18 @@ public class LayerEdge implements Edge {
   }
 
   public String label() {
-    return edgeType.name() + ":" + layerName;
+    return label(edgeType, layerName);
+  }
+
+  /** The label of the layer edges with the given type in the given layer. */
+  public static String label(final EdgeType edgeType, final String layerName) {
+    return LABELS
+        .get(edgeType)
+        .computeIfAbsent(layerName, layer -> edgeType.name() + ":" + layer);
+  }
+
+  public EdgeType getEdgeType() {
+    return edgeType;
   }
 
   public String getLayerName() {
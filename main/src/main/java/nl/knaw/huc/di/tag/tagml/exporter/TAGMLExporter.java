@@ -82,7 +82,7 @@ public class TAGMLExporter extends TAGExporter {
   }
 
   public String asTAGML(TAGDocument document) {
-    annotationFactory = new AnnotationFactory(store, document.getDTO().textGraph);
+    annotationFactory = new AnnotationFactory(store, document.getDTO().getTextGraph());
     Map<Long, AtomicInteger> discontinuousMarkupTextNodesToHandle = new HashMap<>();
     document
         .getMarkupStream()
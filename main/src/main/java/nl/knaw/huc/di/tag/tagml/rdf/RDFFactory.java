@@ -91,7 +91,7 @@ public class RDFFactory {
     String documentURI = instance.resourceURI("document", resourceCounter.getAndIncrement());
     Resource documentResource =
         model.createResource(documentURI).addProperty(RDF.type, TAG.Document);
-    final TextGraph textGraph = document.getDTO().textGraph;
+    final TextGraph textGraph = document.getDTO().getTextGraph();
     AnnotationFactory annotationFactory = new AnnotationFactory(document.store, textGraph);
 
     //    System.out.println("3");
@@ -138,12 +138,14 @@ public class RDFFactory {
                 for (String layer : layers) {
                   markupResource.addProperty(TAG.layer, layerResources.get(layer));
                 }
-                markup
-                    .getAnnotationStream()
-                    .map(
-                        ai ->
-                            instance.toAnnotationResource(
-                                model, ai, document.store, annotationFactory, identifiedResources))
+                instance
+                    .toAnnotationResources(
+                        model,
+                        id,
+                        markup.getAnnotationStream().collect(toList()),
+                        document.store,
+                        annotationFactory,
+                        identifiedResources)
                     .forEach(ar -> markupResource.addProperty(TAG.annotation, ar));
               }
             });
@@ -269,13 +271,37 @@ public class RDFFactory {
     return textResource;
   }
 
+  // The annotations are named after their owner (a markup, list or map) and their position there:
+  // identical annotation values share one node, so the value id does not identify an annotation.
+  private List<Resource> toAnnotationResources(
+      Model model,
+      Long ownerId,
+      List<AnnotationInfo> annotationInfos,
+      final TAGStore store,
+      AnnotationFactory annotationFactory,
+      Map<String, Resource> identifiedResources) {
+    List<Resource> resources = new ArrayList<>(annotationInfos.size());
+    for (int i = 0; i < annotationInfos.size(); i++) {
+      String annotationURI = resourceURI("annotation", ownerId) + "_" + i;
+      resources.add(
+          toAnnotationResource(
+              model,
+              annotationURI,
+              annotationInfos.get(i),
+              store,
+              annotationFactory,
+              identifiedResources));
+    }
+    return resources;
+  }
+
   private Resource toAnnotationResource(
       Model model,
+      String annotationURI,
       AnnotationInfo annotationInfo,
       final TAGStore store,
       AnnotationFactory annotationFactory,
       Map<String, Resource> identifiedResources) {
-    String annotationURI = resourceURI("annotation", annotationInfo.getNodeId());
     Resource resource =
         model
             .createResource(annotationURI)
@@ -300,24 +326,26 @@ public class RDFFactory {
 
     } else if (annotationInfo.getType().equals(AnnotationType.List)) {
       Iterator<Resource> iterator =
-          annotationFactory.getListValue(annotationInfo).stream()
-              .map(
-                  ai ->
-                      toAnnotationResource(
-                          model, ai, store, annotationFactory, identifiedResources))
-              .collect(toList())
+          toAnnotationResources(
+                  model,
+                  annotationInfo.getNodeId(),
+                  annotationFactory.getListValue(annotationInfo),
+                  store,
+                  annotationFactory,
+                  identifiedResources)
               .iterator();
       RDFList list = model.createList(iterator);
       resource.addProperty(TAG.value, list);
 
     } else if (annotationInfo.getType().equals(AnnotationType.Map)) {
       Iterator<Resource> iterator =
-          annotationFactory.getMapValue(annotationInfo).stream()
-              .map(
-                  ai ->
-                      toAnnotationResource(
-                          model, ai, store, annotationFactory, identifiedResources))
-              .collect(toList())
+          toAnnotationResources(
+                  model,
+                  annotationInfo.getNodeId(),
+                  annotationFactory.getMapValue(annotationInfo),
+                  store,
+                  annotationFactory,
+                  identifiedResources)
               .iterator();
       RDFList list = model.createList(iterator);
       resource.addProperty(TAG.value, list);
@@ -0,0 +1,111 @@
+package nl.knaw.huygens.alexandria;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers for writing nullable values with {@link DataOutput}, and reading them back. */
+public class DataIOUtil {
+
+  /** Unlike {@link DataOutput#writeUTF}, this has no 64K limit on the encoded length. */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static void writeNullableLong(DataOutput out, Long value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeLong(value);
+    }
+  }
+
+  public static Long readNullableLong(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readLong() : null;
+  }
+
+  public static <E extends Enum<E>> void writeEnum(DataOutput out, E value) throws IOException {
+    out.writeByte(value == null ? -1 : value.ordinal());
+  }
+
+  public static <E extends Enum<E>> E readEnum(DataInput in, Class<E> enumClass)
+      throws IOException {
+    byte ordinal = in.readByte();
+    return ordinal < 0 ? null : enumClass.getEnumConstants()[ordinal];
+  }
+
+  /** Unsigned LEB128: seven bits per byte, so small values take a single byte. */
+  public static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  public static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed variable length number");
+  }
+
+  /** Zigzag encoded, so small negative values take a single byte too. */
+  public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+    writeVarLong(out, (value << 1) ^ (value >> 63));
+  }
+
+  public static long readSignedVarLong(DataInput in) throws IOException {
+    long zigzag = readVarLong(in);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    writeVarLong(out, value & 0xFFFFFFFFL);
+  }
+
+  public static int readVarInt(DataInput in) throws IOException {
+    return (int) readVarLong(in);
+  }
+}
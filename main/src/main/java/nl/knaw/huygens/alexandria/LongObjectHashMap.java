@@ -0,0 +1,176 @@
+package nl.knaw.huygens.alexandria;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to non-null values, without the boxing
+ * and per-entry objects of a {@code HashMap<Long, V>}. Not thread-safe.
+ */
+public class LongObjectHashMap<V> {
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] keys;
+  private Object[] values; // null marks a free slot
+  private int size = 0;
+  private int threshold;
+
+  public LongObjectHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public LongObjectHashMap(int expectedSize) {
+    allocate(tableSizeFor((int) (expectedSize / LOAD_FACTOR) + 1));
+  }
+
+  public V get(long key) {
+    int slot = indexOf(key);
+    return slot < 0 ? null : value(slot);
+  }
+
+  public boolean containsKey(long key) {
+    return indexOf(key) >= 0;
+  }
+
+  public V put(long key, V value) {
+    checkNotNull(value);
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (values[slot] != null) {
+      if (keys[slot] == key) {
+        V previous = value(slot);
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > threshold) {
+      rehash(keys.length << 1);
+    }
+    return null;
+  }
+
+  public V remove(long key) {
+    int slot = indexOf(key);
+    if (slot < 0) {
+      return null;
+    }
+    V previous = value(slot);
+    size--;
+    // shift the following entries of the probe sequence back, so no tombstones are needed
+    int mask = keys.length - 1;
+    int free = slot;
+    int next = (slot + 1) & mask;
+    while (values[next] != null) {
+      int home = mix(keys[next]) & mask;
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        values[free] = values[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    values[free] = null;
+    return previous;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  public void forEach(EntryConsumer<? super V> consumer) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        consumer.accept(keys[i], value(i));
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface EntryConsumer<V> {
+    void accept(long key, V value);
+  }
+
+  private int indexOf(long key) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (values[slot] != null) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(int slot) {
+    return (V) values[slot];
+  }
+
+  private void rehash(int newCapacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(newCapacity);
+    size = 0;
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        put(oldKeys[i], value(oldValues, i));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(Object[] array, int slot) {
+    return (V) array[slot];
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private static int tableSizeFor(int capacity) {
+    int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    return Math.max(n, 2);
+  }
+}
@@ -25,15 +25,45 @@ import com.sleepycat.persist.model.PrimaryKey;
 
 import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
 
-@Persistent
+/**
+ * Base class of the annotation value records.
+ *
+ * <p>A {@link BDBTAGStore} that is configured to intern annotation values keeps one record for
+ * identical string, number, boolean and reference values, which counts the annotations referring to
+ * it. Shared values should therefore not be changed in place.
+ */
+@Persistent(version = 1)
 public class AnnotationValue implements TAGDTO {
   @PrimaryKey(sequence = DataAccessor.SEQUENCE)
   private Long id;
 
+  private int referenceCount = 1;
+
   public AnnotationValue() {}
 
   @Override
   public Long getDbId() {
     return id;
   }
+
+  @Override
+  public void setDbId(Long dbId) {
+    this.id = dbId;
+  }
+
+  public int getReferenceCount() {
+    return referenceCount;
+  }
+
+  void incrementReferenceCount() {
+    referenceCount++;
+  }
+
+  void decrementReferenceCount() {
+    referenceCount--;
+  }
+
+  void setReferenceCount(int referenceCount) {
+    this.referenceCount = referenceCount;
+  }
 }
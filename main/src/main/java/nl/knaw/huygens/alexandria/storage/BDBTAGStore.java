@@ -21,88 +21,299 @@ package nl.knaw.huygens.alexandria.storage;
  */
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Durability;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentStats;
 import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.Sequence;
+import com.sleepycat.je.SequenceConfig;
+import com.sleepycat.je.StatsConfig;
 import com.sleepycat.je.Transaction;
+import com.sleepycat.persist.EntityCursor;
 import com.sleepycat.persist.EntityStore;
 import com.sleepycat.persist.PrimaryIndex;
+import com.sleepycat.persist.SecondaryIndex;
 import com.sleepycat.persist.StoreConfig;
+import com.sleepycat.persist.evolve.Mutations;
+import com.sleepycat.persist.evolve.Renamer;
 import com.sleepycat.persist.model.AnnotationModel;
 import com.sleepycat.persist.model.EntityModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.knaw.huc.di.tag.model.graph.LegacyTextGraph;
+import nl.knaw.huc.di.tag.model.graph.TextGraph;
+import nl.knaw.huc.di.tag.model.graph.TextGraphCodec;
+import nl.knaw.huygens.alexandria.LongObjectHashMap;
+import nl.knaw.huygens.alexandria.storage.TAGStoreMetrics.Operation;
 import nl.knaw.huygens.alexandria.storage.bdb.LinkedHashSetProxy;
 import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextChunkDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextGraphDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * A {@link TAGStore} backed by a Berkeley DB JE environment.
+ *
+ * <p>Concurrency: the store may be shared between threads. Every thread that calls {@code
+ * runInTransaction} gets its own BDB transaction; nested calls on the same thread join it. Changes
+ * made in a transaction are not visible to other threads until it commits, and reads only see
+ * committed data of other threads. A reader that touches a record written by a still running
+ * transaction waits for that transaction to finish. Two transactions that write the same records
+ * may conflict; the losing transaction is rolled back and the {@link
+ * com.sleepycat.je.LockConflictException} is rethrown from {@code runInTransaction}. The dtos and
+ * wrappers returned by the store are not thread-safe and should not be shared between threads.
+ * {@link #close()} should only be called when no other thread is using the store; transactions that
+ * are still open are aborted.
+ *
+ * <p>Records read outside of the current transaction's own writes are served from a {@link
+ * TAGStoreCache} of configurable size, so repeated traversals of a document do not go to the btree
+ * again. The cache holds the stored bytes of a record, not the dto: every read gets a dto of its
+ * own, so one thread changing a dto it has not persisted yet does not affect the others. A record
+ * is dropped from the cache as soon as it is persisted or removed. The stored text graphs of
+ * documents have a cache of their own, and a read-only store keeps the frozen text graphs it
+ * decoded, for all transactions to share.
+ *
+ * <p>The store keeps {@link TAGStoreMetrics}: latencies of writes, reads and transactions, the
+ * number of aborted transactions, and the commit, cache and BDB environment statistics.
+ */
 public class BDBTAGStore implements TAGStore {
   private static final Logger LOG = LoggerFactory.getLogger(BDBTAGStore.class);
-  private static final LockMode LOCK_MODE = LockMode.READ_UNCOMMITTED_ALL;
+  private static final LockMode LOCK_MODE = LockMode.READ_COMMITTED;
+  private static final int BATCH_SIZE = 1000;
+  private static final StatsConfig FAST_STATS = new StatsConfig().setFast(true);
 
   private final String dbDir;
-  private final boolean readOnly;
+  private final long firstId;
+  private final BDBTAGStoreConfig config;
 
   private Environment bdbEnvironment;
   public DataAccessor da;
   private EntityStore store;
-  private ThreadLocal<Boolean> transactionOpen;
-  private Transaction tx;
+  private final ThreadLocal<TransactionState> transactionState = new ThreadLocal<>();
+  private final Set<TransactionState> openTransactions = ConcurrentHashMap.newKeySet();
+  private final TAGStoreCache cache;
+  private final TAGStoreCache textGraphCache;
+  // read-only stores only: the decoded text graphs, frozen, by document id
+  private final Cache<Long, TextGraph> frozenTextGraphs;
+  private final Durability durability;
+  private final CommitMetrics commitMetrics = new CommitMetrics();
+  private final CompactionMetrics compactionMetrics = new CompactionMetrics();
+  private LogCompactor logCompactor;
+  private GroupCommit groupCommit;
+  private IdBlockAllocator idBlockAllocator;
+  // bulk-load mode only: the sequence new records get their ids from when they are buffered
+  private Sequence idSequence;
+  private final TAGStoreMetrics metrics;
+  private ObjectName metricsMBeanName;
+  private TAGStore owner = this;
 
   public BDBTAGStore(String dbDir, boolean readOnly) {
+    this(dbDir, new BDBTAGStoreConfig().setReadOnly(readOnly));
+  }
+
+  public BDBTAGStore(String dbDir, BDBTAGStoreConfig config) {
+    this(dbDir, config, 0);
+  }
+
+  /** A store that gives out ids from {@code firstId} on, when it is created. */
+  BDBTAGStore(String dbDir, BDBTAGStoreConfig config, long firstId) {
     //    LOG.debug("db dir={}", dbDir);
     this.dbDir = dbDir;
-    this.readOnly = readOnly;
+    this.config = config;
+    this.firstId = firstId;
+    this.cache = new TAGStoreCache(config.getCacheSize());
+    this.textGraphCache = new TAGStoreCache(config.getTextGraphCacheSize());
+    this.frozenTextGraphs =
+        CacheBuilder.newBuilder().maximumSize(config.getTextGraphCacheSize()).build();
+    this.durability = new Durability(config.getSyncPolicy(), null, null);
+    this.metrics =
+        new TAGStoreMetrics(
+            commitMetrics,
+            compactionMetrics,
+            cache::getStats,
+            this::environmentStats);
     open();
   }
 
   @Override
   public void open() {
     try {
+      boolean readOnly = config.isReadOnly();
+      boolean logCompaction = config.isLogCompaction() && !readOnly;
       EnvironmentConfig envConfig =
           new EnvironmentConfig()
               .setReadOnly(readOnly)
               .setAllowCreate(!readOnly)
               .setTransactional(true)
               .setConfigParam(EnvironmentConfig.FREE_DISK, "0");
+      if (logCompaction) {
+        envConfig.setConfigParam(EnvironmentConfig.ENV_RUN_CLEANER, "false");
+      }
 
       bdbEnvironment = new Environment(new File(dbDir), envConfig);
+      groupCommit =
+          config.isGroupCommit() && config.getSyncPolicy() == Durability.SyncPolicy.SYNC
+              ? new GroupCommit(() -> bdbEnvironment.flushLog(true), commitMetrics)
+              : null;
 
       EntityModel model = new AnnotationModel();
       model.registerClass(LinkedHashSetProxy.class);
       StoreConfig storeConfig =
-          new StoreConfig().setAllowCreate(true).setTransactional(true).setModel(model);
+          new StoreConfig()
+              .setAllowCreate(true)
+              .setTransactional(true)
+              .setModel(model)
+              .setMutations(mutations());
       store = new EntityStore(bdbEnvironment, "TAGStore", storeConfig);
 
+      if (firstId > 0) {
+        // only used when the sequence is created
+        SequenceConfig sequenceConfig = store.getSequenceConfig(DataAccessor.SEQUENCE);
+        store.setSequenceConfig(DataAccessor.SEQUENCE, sequenceConfig.setInitialValue(firstId));
+      }
       da = new DataAccessor(store);
-      tx = null;
+      int idBlockSize = config.getIdBlockSize();
+      idBlockAllocator =
+          idBlockSize > 0 && !readOnly
+              ? new IdBlockAllocator(store.getSequence(DataAccessor.SEQUENCE), idBlockSize)
+              : null;
+      idSequence =
+          config.isBulkLoad() && !readOnly ? store.getSequence(DataAccessor.SEQUENCE) : null;
+
+      logCompactor =
+          logCompaction
+              ? new LogCompactor(
+                  bdbEnvironment,
+                  config.getLogCompactionMinUtilization(),
+                  config.getLogCompactionIntervalMillis(),
+                  config.getLogCompactionPauseMillis(),
+                  compactionMetrics)
+              : null;
+
+      if (config.isMetricsMBean()) {
+        registerMetricsMBean();
+      }
 
     } catch (DatabaseException dbe) {
       throw new RuntimeException(dbe);
     }
   }
 
+  private void registerMetricsMBean() {
+    try {
+      ObjectName name =
+          new ObjectName(
+              "nl.knaw.huygens.alexandria:type=BDBTAGStore,dir=" + ObjectName.quote(dbDir));
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (!server.isRegistered(name)) {
+        server.registerMBean(metrics, name);
+        metricsMBeanName = name;
+      }
+    } catch (JMException e) {
+      LOG.warn("could not register the metrics MBean for {}: {}", dbDir, e.toString());
+    }
+  }
+
+  private void unregisterMetricsMBean() {
+    if (metricsMBeanName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+      } catch (JMException e) {
+        LOG.warn("could not unregister the metrics MBean for {}: {}", dbDir, e.toString());
+      }
+      metricsMBeanName = null;
+    }
+  }
+
+  private EnvironmentStats environmentStats() {
+    Environment environment = bdbEnvironment;
+    return environment == null || environment.isClosed() ? null : environment.getStats(FAST_STATS);
+  }
+
+  private static Mutations mutations() {
+    Mutations mutations = new Mutations();
+    // since version 6, the text graph is stored encoded by TextGraphCodec
+    mutations.addRenamer(
+        new Renamer(TAGDocumentDTO.class.getName(), 5, "textGraph", "legacyTextGraph"));
+    // TextGraph itself is no longer persistent, older records are read as LegacyTextGraph
+    mutations.addRenamer(
+        new Renamer(TextGraph.class.getName(), 0, LegacyTextGraph.class.getName()));
+    return mutations;
+  }
+
   @Override
   public void close() {
+    unregisterMetricsMBean();
+    if (logCompactor != null) {
+      logCompactor.stop();
+      logCompactor = null;
+    }
     try {
-      if (tx != null && tx.isValid()) {
-        tx.abort(); // close it or lose it
+      for (TransactionState state : openTransactions) {
+        if (state.tx.isValid()) {
+          state.tx.abort(); // close it or lose it
+        }
       }
+      openTransactions.clear();
+      transactionState.remove();
+      cache.clear();
+      textGraphCache.clear();
+      frozenTextGraphs.invalidateAll();
       if (store != null) {
         store.close();
       }
       if (bdbEnvironment != null && !bdbEnvironment.isClosed()) {
-        bdbEnvironment.cleanLog();
+        if (config.isBulkLoad() && !config.isReadOnly()) {
+          bdbEnvironment.sync();
+        }
         bdbEnvironment.close();
       }
     } catch (DatabaseException dbe) {
@@ -112,65 +323,443 @@ public class BDBTAGStore implements TAGStore {
 
   @Override
   public Long persist(TAGDTO tagdto) {
+    long start = System.nanoTime();
+    try {
+      return persistNowOrAtCommit(tagdto);
+    } finally {
+      metrics.record(Operation.PERSIST, start);
+    }
+  }
+
+  private Long persistNowOrAtCommit(TAGDTO tagdto) {
     checkNotNull(tagdto);
     assertInTransaction();
+    Map<Long, TAGDTO> pendingDTOs = transactionState.get().pendingDTOs;
+    Long id = tagdto.getDbId();
+    if (config.isBulkLoad()) {
+      // buffered until the end of the transaction; a new record only takes an id now
+      if (id == null) {
+        id = assignId(tagdto);
+      }
+      written(id);
+      pendingDTOs.put(id, tagdto);
+      return id;
+    }
+    if (id != null && pendingDTOs.containsKey(id)) {
+      if (pendingDTOs.get(id) == tagdto) {
+        // will be written on commit
+        return id;
+      }
+      pendingDTOs.remove(id);
+    }
+    put(tagdto);
+    return tagdto.getDbId();
+  }
+
+  @Override
+  public void persistAtCommit(TAGDTO tagdto) {
+    long start = System.nanoTime();
+    checkNotNull(tagdto);
+    assertInTransaction();
+    Long id = tagdto.getDbId();
+    if (id == null && config.isBulkLoad()) {
+      id = assignId(tagdto);
+    } else if (id == null) {
+      // no id yet, so it needs to be written now to get one
+      put(tagdto);
+      id = tagdto.getDbId();
+    }
+    written(id);
+    transactionState.get().pendingDTOs.put(id, tagdto);
+    if (tagdto instanceof TAGDocumentDTO) {
+      // text or markup is being attached to the document
+      useIdBlocksOf(id);
+    }
+    metrics.record(Operation.PERSIST, start);
+  }
+
+  private void put(TAGDTO tagdto) {
+    byte[] textGraphData = null;
+    if (tagdto instanceof TAGTextNodeDTO) {
+      TAGTextNodeDTO textNode = (TAGTextNodeDTO) tagdto;
+      releaseChunk(textNode.takeReplacedChunkId());
+      moveTextToChunk(textNode);
+    } else if (tagdto instanceof TAGDocumentDTO) {
+      textGraphData = ((TAGDocumentDTO) tagdto).encodeTextGraph();
+    }
     Class<? extends TAGDTO> dtoClass = tagdto.getClass();
     final PrimaryIndex index = da.getPrimaryIndexForClass(dtoClass);
     if (index != null) {
-      index.put(tx, tagdto);
+      assignBlockId(tagdto);
+      index.put(currentTransaction(), tagdto);
+      written(tagdto.getDbId());
+      if (textGraphData != null) {
+        da.textGraphByDocumentId.put(
+            currentTransaction(), new TAGTextGraphDTO(tagdto.getDbId(), textGraphData));
+      }
+      if (tagdto instanceof TAGDocumentDTO) {
+        transactionState.get().documents.put(tagdto.getDbId(), (TAGDocumentDTO) tagdto);
+      }
 
     } else {
       throw new RuntimeException("unhandled class: " + tagdto.getClass());
     }
+  }
+
+  // Gives a new record the id it would get when it is written, without writing it.
+  private Long assignId(TAGDTO tagdto) {
+    assignBlockId(tagdto);
+    if (tagdto.getDbId() == null) {
+      // auto-commit, like the ids the primary indexes take from the sequence
+      tagdto.setDbId(idSequence.get(null, 1));
+    }
     return tagdto.getDbId();
   }
 
+  private void flushPendingDTOs(TransactionState state) {
+    // chunk the text first: that may add chunks to the pending dtos
+    new ArrayList<>(state.pendingDTOs.values())
+        .stream()
+        .filter(TAGTextNodeDTO.class::isInstance)
+        .map(TAGTextNodeDTO.class::cast)
+        .forEach(this::moveTextToChunk);
+    closeTextChunk(state);
+    state.pendingDTOs.values().forEach(this::put);
+    state.pendingDTOs.clear();
+  }
+
+  // Text chunks: the text of the text nodes written in a transaction is appended to a chunk, that is
+  // written when the transaction commits. Consecutive text nodes then share one record, and reading
+  // a document's text in order reads each chunk once (see resolveChunkText). A chunk counts the
+  // text nodes that refer to it, and is removed when the last of them is changed or removed.
+  private void moveTextToChunk(TAGTextNodeDTO textNode) {
+    int chunkSize = config.getTextChunkSize();
+    if (chunkSize <= 0 || !textNode.hasInlineText() || textNode.getText().isEmpty()) {
+      return;
+    }
+    TransactionState state = transactionState.get();
+    String text = textNode.getText();
+    if (state.textChunk == null || state.textChunkBuilder.length() + text.length() > chunkSize) {
+      closeTextChunk(state);
+      TAGTextChunkDTO chunk = new TAGTextChunkDTO();
+      assignBlockId(chunk);
+      da.textChunkById.put(state.tx, chunk); // to get an id
+      written(chunk.getDbId());
+      state.textChunk = chunk;
+      state.textChunkBuilder = new StringBuilder(Math.max(chunkSize, text.length()));
+      state.pendingDTOs.put(chunk.getDbId(), chunk);
+    }
+    textNode.moveTextToChunk(state.textChunk.getDbId(), state.textChunkBuilder.length());
+    state.textChunkBuilder.append(text);
+    state.textChunk.incrementReferenceCount();
+  }
+
+  private void closeTextChunk(TransactionState state) {
+    TAGTextChunkDTO chunk = state.closeTextChunk();
+    if (chunk != null && chunk.getReferenceCount() == 0) {
+      // all its text nodes were changed again in this transaction
+      removeChunk(chunk.getDbId());
+    }
+  }
+
+  private void releaseChunk(Long chunkId) {
+    if (chunkId == null) {
+      return;
+    }
+    TransactionState state = transactionState.get();
+    TAGDTO pending = state.pendingDTOs.get(chunkId);
+    TAGTextChunkDTO chunk =
+        pending instanceof TAGTextChunkDTO
+            ? (TAGTextChunkDTO) pending
+            : da.textChunkById.get(state.tx, chunkId, LockMode.RMW);
+    if (chunk == null || chunk.getReferenceCount() <= 0) {
+      // gone already, or written before its references were counted
+      return;
+    }
+    chunk.decrementReferenceCount();
+    if (chunk.getReferenceCount() > 0 || chunk == state.textChunk) {
+      persistAtCommit(chunk);
+    } else {
+      removeChunk(chunkId);
+    }
+  }
+
+  private void removeChunk(Long chunkId) {
+    transactionState.get().pendingDTOs.remove(chunkId);
+    da.textChunkById.delete(currentTransaction(), chunkId);
+    written(chunkId);
+  }
+
+  // Id blocks: new records get their ids from the blocks of the document that was last created,
+  // changed, or that markup was last created for, in this transaction; reading a document does not
+  // switch blocks. Records created before any document is used, and all records when id blocks are
+  // not configured, get theirs from the sequence.
+  private void assignBlockId(TAGDTO tagdto) {
+    if (tagdto.getDbId() == null && !(tagdto instanceof TAGDocumentDTO)) {
+      IdBlockAllocator.DocumentIdBlocks idBlocks = transactionState.get().currentIdBlocks;
+      if (idBlocks != null) {
+        Class<?> recordType =
+            tagdto instanceof AnnotationValue ? AnnotationValue.class : tagdto.getClass();
+        tagdto.setDbId(idBlocks.nextId(recordType));
+      }
+    }
+  }
+
+  private void useIdBlocksOf(Long documentId) {
+    if (idBlockAllocator != null && documentId != null) {
+      transactionState.get().currentIdBlocks = idBlockAllocator.forDocument(documentId);
+    }
+  }
+
+  // The text of the chunk that was read last is kept with the transaction, so reading the text nodes
+  // of a document in order decodes each chunk once.
+  private TAGTextNodeDTO resolveChunkText(TAGTextNodeDTO textNode) {
+    if (textNode != null && textNode.needsChunkText()) {
+      Long chunkId = textNode.getChunkId();
+      int offset = textNode.getOffset();
+      int end = offset + textNode.getLength();
+      TransactionState state = transactionState.get();
+      if (state.textChunk != null && chunkId.equals(state.textChunk.getDbId())) {
+        textNode.resolveChunkText(state.textChunkBuilder.substring(offset, end));
+        return textNode;
+      }
+      if (!chunkId.equals(state.lastChunkId)) {
+        TAGTextChunkDTO chunk = getDTO(chunkId, da.textChunkById, dto -> dto);
+        state.lastChunkId = chunkId;
+        state.lastChunkText = chunk.getText();
+      }
+      textNode.resolveChunkText(state.lastChunkText.substring(offset, end));
+    }
+    return textNode;
+  }
+
+  private void written(Long id) {
+    TransactionState state = transactionState.get();
+    state.writtenIds.add(id);
+    if (id.equals(state.lastChunkId)) {
+      state.lastChunkId = null;
+      state.lastChunkText = null;
+    }
+    cache.invalidate(id);
+    textGraphCache.invalidate(id);
+  }
+
+  // Every read returns a dto of its own, decoded from the cached or stored bytes, so changes that
+  // a transaction makes to a dto before persisting it stay out of the other transactions.
+  private <T extends TAGDTO> T getDTO(
+      Long id, PrimaryIndex<Long, T> index, UnaryOperator<T> afterRead) {
+    long start = System.nanoTime();
+    try {
+      TransactionState state = transactionState.get();
+      Class<T> dtoClass = index.getEntityClass();
+      TAGDTO pending = state.pendingDTOs.get(id);
+      if (pending != null) {
+        return dtoClass.isInstance(pending) ? dtoClass.cast(pending) : null;
+      }
+      byte[] data = state.writtenIds.contains(id) ? null : cache.get(id, dtoClass);
+      if (data == null) {
+        // uncommitted data is not for other threads to see
+        Object load = state.writtenIds.contains(id) ? null : cache.startLoad(id);
+        try {
+          data = readData(index, id);
+        } finally {
+          if (load != null) {
+            cache.put(id, dtoClass, data, load);
+          }
+        }
+        if (data == null) {
+          return null;
+        }
+      }
+      return afterRead.apply(decode(index, id, data));
+
+    } finally {
+      metrics.record(Operation.GET_DTO, start);
+    }
+  }
+
+  private byte[] readData(PrimaryIndex<Long, ?> index, Long id) {
+    DatabaseEntry key = new DatabaseEntry();
+    index.getKeyBinding().objectToEntry(id, key);
+    DatabaseEntry data = new DatabaseEntry();
+    OperationStatus status = index.getDatabase().get(currentTransaction(), key, data, LOCK_MODE);
+    return status == OperationStatus.SUCCESS ? data.getData() : null;
+  }
+
+  private static <T> T decode(PrimaryIndex<Long, T> index, Long id, byte[] data) {
+    DatabaseEntry key = new DatabaseEntry();
+    index.getKeyBinding().objectToEntry(id, key);
+    return index.getEntityBinding().entryToObject(key, new DatabaseEntry(data));
+  }
+
+  public CacheStats getDTOCacheStats() {
+    return cache.getStats();
+  }
+
+  /**
+   * Cleans the log now, whatever its utilization, and returns the number of bytes it shrunk by.
+   * Only available when log compaction is on.
+   */
+  public long compactLog() {
+    Preconditions.checkState(logCompactor != null, "log compaction is off");
+    return logCompactor.compact(true);
+  }
+
+  /** The latencies and counters of this store. */
+  public TAGStoreMetrics getMetrics() {
+    return metrics;
+  }
+
+  private Transaction currentTransaction() {
+    TransactionState state = transactionState.get();
+    return state == null ? null : state.tx;
+  }
+
   @Override
   public void remove(TAGDTO tagdto) {
     checkNotNull(tagdto);
     assertInTransaction();
+    TAGDTO pending = transactionState.get().pendingDTOs.remove(tagdto.getDbId());
+    if (tagdto instanceof AnnotationValue) {
+      // the count of the given value may be stale, so the stored one is read and locked
+      AnnotationValue annotationValue =
+          pending != null ? (AnnotationValue) pending : lockAnnotationValue(tagdto);
+      if (annotationValue != null && annotationValue.getReferenceCount() > 1) {
+        // still referred to by other annotations
+        annotationValue.decrementReferenceCount();
+        persistAtCommit(annotationValue);
+        return;
+      }
+    }
+    long start = System.nanoTime();
     Class<? extends TAGDTO> dtoClass = tagdto.getClass();
     final PrimaryIndex index = da.getPrimaryIndexForClass(dtoClass);
     if (index != null) {
-      index.delete(tx, tagdto.getDbId());
+      index.delete(currentTransaction(), tagdto.getDbId());
+      if (tagdto instanceof TAGDocumentDTO) {
+        da.textGraphByDocumentId.delete(currentTransaction(), tagdto.getDbId());
+        transactionState.get().documents.remove(tagdto.getDbId());
+      }
+      written(tagdto.getDbId());
+      if (tagdto instanceof TAGTextNodeDTO) {
+        TAGTextNodeDTO textNode = (TAGTextNodeDTO) (pending != null ? pending : tagdto);
+        releaseChunk(textNode.takeReplacedChunkId());
+        releaseChunk(textNode.getChunkId());
+      }
+      metrics.record(Operation.REMOVE, start);
 
     } else {
       throw new RuntimeException("unhandled class: " + tagdto.getClass());
     }
   }
 
+  private AnnotationValue lockAnnotationValue(TAGDTO annotationValue) {
+    PrimaryIndex<Long, ? extends TAGDTO> index =
+        da.getPrimaryIndexForClass(annotationValue.getClass());
+    Long id = annotationValue.getDbId();
+    return (AnnotationValue) index.get(currentTransaction(), id, LockMode.RMW);
+  }
+
+  /**
+   * Sets the store that the document, text node and markup wrappers of this store call back into,
+   * for a store that this one is part of.
+   */
+  void setOwner(TAGStore owner) {
+    this.owner = checkNotNull(owner);
+  }
+
   // Document
+  // A transaction reads a document once: the markup and text node wrappers that ask for it again
+  // get the same dto, so its text graph is only decoded once per transaction.
   @Override
   public TAGDocumentDTO getDocumentDTO(Long documentId) {
     assertInTransaction();
-    return da.documentById.get(tx, documentId, LOCK_MODE);
+    TransactionState state = transactionState.get();
+    TAGDocumentDTO document = state.documents.get(documentId);
+    if (document == null || state.pendingDTOs.containsKey(documentId)) {
+      document = getDTO(documentId, da.documentById, this::withTextGraphLoader);
+      if (document != null) {
+        state.documents.put(documentId, document);
+      }
+    }
+    return document;
+  }
+
+  // The text graph is stored in a record of its own, that is only read when it is asked for.
+  private TAGDocumentDTO withTextGraphLoader(TAGDocumentDTO document) {
+    if (document != null) {
+      document.setTextGraphLoader(() -> readTextGraph(document));
+    }
+    return document;
+  }
+
+  private TextGraph readTextGraph(TAGDocumentDTO document) {
+    Long documentId = document.getDbId();
+    if (config.isReadOnly()) {
+      TextGraph frozen = frozenTextGraphs.getIfPresent(documentId);
+      if (frozen != null) {
+        return frozen;
+      }
+    }
+    TextGraph textGraph = document.decodeInlineTextGraph();
+    if (textGraph == null) {
+      byte[] data = readTextGraphData(documentId);
+      textGraph = data == null ? new TextGraph() : TextGraphCodec.decode(data);
+    }
+    if (config.isReadOnly()) {
+      // nothing will change it, so it can be frozen, which also makes it safe to share
+      textGraph.freeze();
+      frozenTextGraphs.put(documentId, textGraph);
+    }
+    return textGraph;
+  }
+
+  // The graph is read when it is first asked for, which may be after the transaction ended.
+  private byte[] readTextGraphData(Long documentId) {
+    TransactionState state = transactionState.get();
+    boolean written = state != null && state.writtenIds.contains(documentId);
+    byte[] data = written ? null : textGraphCache.get(documentId, TAGTextGraphDTO.class);
+    if (data == null) {
+      Object load = written ? null : textGraphCache.startLoad(documentId);
+      try {
+        TAGTextGraphDTO textGraphDTO =
+            da.textGraphByDocumentId.get(currentTransaction(), documentId, LOCK_MODE);
+        data = textGraphDTO == null ? null : textGraphDTO.getData();
+      } finally {
+        if (load != null) {
+          textGraphCache.put(documentId, TAGTextGraphDTO.class, data, load);
+        }
+      }
+    }
+    return data;
   }
 
   @Override
   public TAGDocument getDocument(Long documentId) {
-    return new TAGDocument(this, getDocumentDTO(documentId));
+    return new TAGDocument(owner, getDocumentDTO(documentId));
   }
 
   @Override
   public TAGDocument createDocument() {
     TAGDocumentDTO documentDTO = new TAGDocumentDTO();
     persist(documentDTO);
+    useIdBlocksOf(documentDTO.getDbId());
     documentDTO.initialize();
-    return new TAGDocument(this, documentDTO);
+    return new TAGDocument(owner, documentDTO);
   }
 
   // TextNode
   @Override
   public TAGTextNodeDTO getTextNodeDTO(Long textNodeId) {
     assertInTransaction();
-    return da.textNodeById.get(tx, textNodeId, LOCK_MODE);
+    return getDTO(textNodeId, da.textNodeById, this::resolveChunkText);
   }
 
   @Override
   public TAGTextNode createTextNode(String content) {
     TAGTextNodeDTO tagTextNodeDTO = new TAGTextNodeDTO(content);
     persist(tagTextNodeDTO);
-    return new TAGTextNode(this, tagTextNodeDTO);
+    return new TAGTextNode(owner, tagTextNodeDTO);
   }
 
   @Override
@@ -180,54 +769,62 @@ public class BDBTAGStore implements TAGStore {
 
   @Override
   public TAGTextNode getTextNode(Long textNodeId) {
-    return new TAGTextNode(this, getTextNodeDTO(textNodeId));
+    assertInTransaction();
+    return new TAGTextNode(owner, getTextNodeDTO(textNodeId));
+  }
+
+  @Override
+  public List<TAGTextNode> getTextNodes(long[] textNodeIds) {
+    assertInTransaction();
+    return getWrappers(
+        textNodeIds, da.textNodeById, this::resolveChunkText, dto -> new TAGTextNode(owner, dto));
+  }
+
+  @Override
+  public Stream<TAGTextNode> streamTextNodes(LongStream textNodeIds) {
+    PrimitiveIterator.OfLong ids = textNodeIds.iterator();
+    Iterator<List<TAGTextNode>> batches =
+        new Iterator<List<TAGTextNode>>() {
+          @Override
+          public boolean hasNext() {
+            return ids.hasNext();
+          }
+
+          @Override
+          public List<TAGTextNode> next() {
+            long[] batch = new long[BATCH_SIZE];
+            int size = 0;
+            while (size < BATCH_SIZE && ids.hasNext()) {
+              batch[size++] = ids.nextLong();
+            }
+            return getTextNodes(Arrays.copyOf(batch, size));
+          }
+        };
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+        .flatMap(List::stream);
   }
 
   // Markup
   @Override
   public TAGMarkupDTO getMarkupDTO(Long markupId) {
     assertInTransaction();
-    return da.markupById.get(tx, markupId, LOCK_MODE);
+    return getDTO(markupId, da.markupById, dto -> dto);
   }
 
   @Override
   public TAGMarkup createMarkup(TAGDocument document, String tagName) {
-    String tag;
-    String suffix = null;
-    String id = null;
-    if (tagName == null) {
-      tag = "";
-
-    } else if (tagName.contains("~")) {
-      String[] parts = tagName.split("~");
-      tag = parts[0];
-      suffix = parts[1];
-
-    } else if (tagName.contains("=")) {
-      String[] parts = tagName.split("=");
-      tag = parts[0];
-      id = parts[1];
-
-    } else if (tagName.contains("@")) {
-      String[] parts = tagName.split("@");
-      tag = parts[0];
-      id = parts[1];
-
-    } else {
-      tag = tagName;
-    }
-
-    TAGMarkupDTO markupDTO = new TAGMarkupDTO(document.getDbId(), tag);
-    markupDTO.setMarkupId(id);
-    markupDTO.setSuffix(suffix);
+    TAGMarkupDTO markupDTO = TAGMarkup.newMarkupDTO(document, tagName);
+    useIdBlocksOf(document.getDbId());
     persist(markupDTO);
     // document.addMarkup(markup);
-    return new TAGMarkup(this, markupDTO);
+    return new TAGMarkup(owner, markupDTO);
   }
 
   @Override
   public TAGMarkup getMarkup(Long markupId) {
-    return new TAGMarkup(this, getMarkupDTO(markupId));
+    assertInTransaction();
+    return new TAGMarkup(owner, getMarkupDTO(markupId));
   }
 
   // Annotation
@@ -287,6 +884,158 @@ public class BDBTAGStore implements TAGStore {
   //    return new TAGAnnotation(this, getAnnotationDTO(annotationId));
   //  }
 
+  @Override
+  public List<TAGMarkup> getMarkups(long[] markupIds) {
+    assertInTransaction();
+    return getWrappers(markupIds, da.markupById, dto -> dto, dto -> new TAGMarkup(owner, dto));
+  }
+
+  // warm-up
+
+  /**
+   * Reads the records of the document with one thread per batch, in key order, with the batch
+   * reads that also serve {@link #getMarkups}, {@link #getTextNodes} and {@link
+   * #getAnnotationValues}, so they end up in both the BDB cache and the {@link TAGStoreCache}.
+   */
+  @Override
+  public long warmUp(Long documentId, WarmUpConfig warmUpConfig) {
+    assertTransactionIsClosed();
+    return warmUp(this, documentId, warmUpConfig);
+  }
+
+  /**
+   * Warms up the document through the given store, which finds the records of the document and
+   * reads them; a store made of several stores passes itself, so records in all of them are read.
+   */
+  static long warmUp(TAGStore store, Long documentId, WarmUpConfig warmUpConfig) {
+    checkNotNull(documentId);
+    checkNotNull(warmUpConfig);
+    DocumentRecordIds recordIds =
+        store.runInTransaction(() -> DocumentRecordIds.of(store, documentId));
+
+    // markup and annotation values first: there are fewer of them than text nodes
+    List<long[]> batches = new ArrayList<>();
+    List<Function<long[], List<?>>> readers = new ArrayList<>();
+    long budget = warmUpConfig.getMaxRecords() - recordIds.getDocumentIds().size();
+    budget = addBatches(recordIds.getMarkupIds(), store::getMarkups, budget, batches, readers);
+    for (Map.Entry<Class<? extends AnnotationValue>, long[]> entry :
+        recordIds.getAnnotationValueIds().entrySet()) {
+      Class<? extends AnnotationValue> valueClass = entry.getKey();
+      budget =
+          addBatches(
+              entry.getValue(),
+              ids -> store.getAnnotationValues(valueClass, ids),
+              budget,
+              batches,
+              readers);
+    }
+    addBatches(recordIds.getTextNodeIds(), store::getTextNodes, budget, batches, readers);
+
+    long recordsToRead = batches.stream().mapToLong(batch -> batch.length).sum();
+    WarmUpConfig.ProgressListener progressListener = warmUpConfig.getProgressListener();
+    AtomicLong recordsRead = new AtomicLong();
+    List<Callable<Void>> reads = new ArrayList<>(batches.size());
+    for (int i = 0; i < batches.size(); i++) {
+      long[] batch = batches.get(i);
+      Function<long[], List<?>> reader = readers.get(i);
+      reads.add(
+          () -> {
+            store.runInTransaction(() -> reader.apply(batch));
+            synchronized (recordsRead) {
+              progressListener.progress(recordsRead.addAndGet(batch.length), recordsToRead);
+            }
+            return null;
+          });
+    }
+    runAll(reads, warmUpConfig.getParallelism());
+    return recordsToRead;
+  }
+
+  private static long addBatches(
+      long[] ids,
+      Function<long[], List<?>> reader,
+      long budget,
+      List<long[]> batches,
+      List<Function<long[], List<?>>> readers) {
+    int count = (int) Math.max(0, Math.min(ids.length, budget));
+    for (int from = 0; from < count; from += BATCH_SIZE) {
+      batches.add(Arrays.copyOfRange(ids, from, Math.min(count, from + BATCH_SIZE)));
+      readers.add(reader);
+    }
+    return budget - count;
+  }
+
+  private static void runAll(List<Callable<Void>> tasks, int parallelism) {
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(parallelism, tasks.size())),
+            runnable -> {
+              Thread thread = new Thread(runnable, "tagstore-warm-up");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while warming up", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException
+          ? (RuntimeException) cause
+          : new RuntimeException(cause);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // snapshot
+
+  /**
+   * Passes every record to the consumer: the documents, text nodes, markup and annotation values, in
+   * that order and in key order per type. Text nodes come with their text, and documents read their
+   * text graph when it is asked for.
+   */
+  void forEachRecord(Consumer<TAGDTO> consumer) {
+    assertInTransaction();
+    forEachEntity(da.documentById, document -> consumer.accept(withTextGraphLoader(document)));
+    forEachEntity(da.textNodeById, textNode -> consumer.accept(resolveChunkText(textNode)));
+    forEachEntity(da.markupById, consumer);
+    forEachEntity(da.stringAnnotationValueById, consumer);
+    forEachEntity(da.numberAnnotationValueById, consumer);
+    forEachEntity(da.booleanAnnotationValueById, consumer);
+    forEachEntity(da.referenceValueById, consumer);
+    forEachEntity(da.listAnnotationValueById, consumer);
+    forEachEntity(da.mapAnnotationValueById, consumer);
+  }
+
+  private <T> void forEachEntity(PrimaryIndex<Long, T> index, Consumer<? super T> consumer) {
+    try (EntityCursor<T> cursor =
+        index.entities(currentTransaction(), CursorConfig.READ_COMMITTED)) {
+      for (T entity : cursor) {
+        consumer.accept(entity);
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    return da.documentById.count() == 0
+        && da.textNodeById.count() == 0
+        && da.markupById.count() == 0;
+  }
+
+  /** Moves the id sequence past the given id, so new records do not get the ids of restored ones. */
+  void reserveIdsUpTo(long maxId) {
+    Sequence sequence = store.getSequence(DataAccessor.SEQUENCE);
+    long next = sequence.get(null, 1) + 1;
+    while (next <= maxId) {
+      int delta = (int) Math.min(Integer.MAX_VALUE, maxId - next + 1);
+      next = sequence.get(null, delta) + delta;
+    }
+  }
+
   // transaction
   @Override
   public void runInTransaction(Runnable runner) {
@@ -329,58 +1078,111 @@ public class BDBTAGStore implements TAGStore {
     }
   }
 
-  private Boolean getTransactionIsOpen() {
-    return getTransactionOpen().get();
-  }
-
-  private ThreadLocal<Boolean> getTransactionOpen() {
-    if (transactionOpen == null) {
-      transactionOpen = ThreadLocal.withInitial(() -> false);
-    }
-    return transactionOpen;
+  private boolean getTransactionIsOpen() {
+    return transactionState.get() != null;
   }
 
   private void startTransaction() {
     assertTransactionIsClosed();
-    tx = bdbEnvironment.beginTransaction(null, null);
+    Transaction tx = bdbEnvironment.beginTransaction(null, null);
     tx.setLockTimeout(1L, TimeUnit.MINUTES);
-    setTransactionIsOpen(true);
-  }
-
-  private void setTransactionIsOpen(Boolean b) {
-    getTransactionOpen().set(b);
+    TransactionState state = new TransactionState(tx);
+    transactionState.set(state);
+    openTransactions.add(state);
   }
 
   private void commitTransaction() {
     assertTransactionIsOpen();
-    tryCommitting(10);
-    setTransactionIsOpen(false);
+    TransactionState state = transactionState.get();
+    flushPendingDTOs(state);
+    commitWithRetries(state.tx);
+    // the transaction is committed now: whatever happens while syncing, it can not be rolled back
+    endTransaction(state);
+    cache.invalidateAll(state.writtenIds);
+    textGraphCache.invalidateAll(state.writtenIds);
+    try {
+      if (groupCommit != null && !config.isBulkLoad()) {
+        awaitSync();
+      }
+    } finally {
+      metrics.record(Operation.COMMIT, state.startNanos);
+    }
+  }
+
+  private void awaitSync() {
+    try {
+      groupCommit.awaitSync();
+    } catch (RuntimeException e) {
+      commitMetrics.syncFailures.increment();
+      LOG.error("the transaction was committed, but the log could not be synced: {}", e.toString());
+      throw e;
+    }
   }
 
-  private void tryCommitting(int count) {
-    if (count > 1) {
+  private void commitWithRetries(Transaction tx) {
+    long backoffMillis = config.getInitialCommitBackoffMillis();
+    for (int attempt = 1; ; attempt++) {
       try {
-        tx.commit();
-      } catch (Exception e) {
-        // wait
+        commit(tx);
+        commitMetrics.commits.increment();
+        return;
+
+      } catch (RuntimeException e) {
+        // a commit that invalidated the transaction can not be tried again
+        if (attempt >= config.getMaxCommitAttempts() || !tx.isValid()) {
+          commitMetrics.failures.increment();
+          throw e;
+        }
+        LOG.warn("commit attempt {} failed, retrying in {} ms: {}", attempt, backoffMillis, e);
+        commitMetrics.retries.increment();
         try {
-          LOG.error("exception={}", e);
-          Thread.sleep(500);
+          Thread.sleep(backoffMillis);
         } catch (InterruptedException ie) {
-          ie.printStackTrace();
+          Thread.currentThread().interrupt();
+          commitMetrics.failures.increment();
+          throw e;
         }
-        // try again
-        tryCommitting(count - 1);
+        commitMetrics.backoffMillis.add(backoffMillis);
+        backoffMillis = Math.min(backoffMillis * 2, config.getMaxCommitBackoffMillis());
       }
+    }
+  }
+
+  private void commit(Transaction tx) {
+    if (config.isBulkLoad()) {
+      tx.commit(Durability.COMMIT_NO_SYNC);
+
+    } else if (groupCommit != null) {
+      // synced by commitTransaction() once the commit has succeeded, together with other commits
+      tx.commit(Durability.COMMIT_WRITE_NO_SYNC);
+
     } else {
-      tx.commit();
+      tx.commit(durability);
     }
   }
 
+  /** The commit counters of this store. */
+  public CommitMetrics getCommitMetrics() {
+    return commitMetrics;
+  }
+
   private void rollbackTransaction() {
     assertTransactionIsOpen();
-    tx.abort();
-    setTransactionIsOpen(false);
+    TransactionState state = transactionState.get();
+    state.pendingDTOs.clear();
+    try {
+      state.tx.abort();
+    } finally {
+      endTransaction(state);
+      cache.invalidateAll(state.writtenIds);
+      textGraphCache.invalidateAll(state.writtenIds);
+      metrics.record(Operation.ABORT, state.startNanos);
+    }
+  }
+
+  private void endTransaction(TransactionState state) {
+    openTransactions.remove(state);
+    transactionState.remove();
   }
 
   private void assertInTransaction() {
@@ -399,23 +1201,17 @@ public class BDBTAGStore implements TAGStore {
 
   @Override
   public Long createStringAnnotationValue(final String value) {
-    assertInTransaction();
-    StringAnnotationValue av = new StringAnnotationValue(value);
-    return persist(av);
+    return intern(value, da.stringAnnotationValueByValue, StringAnnotationValue::new);
   }
 
   @Override
   public Long createBooleanAnnotationValue(final Boolean value) {
-    assertInTransaction();
-    BooleanAnnotationValue av = new BooleanAnnotationValue(value);
-    return persist(av);
+    return intern(value, da.booleanAnnotationValueByValue, BooleanAnnotationValue::new);
   }
 
   @Override
   public Long createNumberAnnotationValue(Double value) {
-    assertInTransaction();
-    NumberAnnotationValue av = new NumberAnnotationValue(value);
-    return persist(av);
+    return intern(value, da.numberAnnotationValueByValue, NumberAnnotationValue::new);
   }
 
   @Override
@@ -434,28 +1230,187 @@ public class BDBTAGStore implements TAGStore {
 
   @Override
   public Long createReferenceValue(String value) {
+    return intern(value, da.referenceValueByValue, ReferenceValue::new);
+  }
+
+  // Identical values share one record, that counts its references. The count is written at commit,
+  // so a value that is used many times in one transaction is only written once. The record is read
+  // with a write lock, so transactions that change its count at the same time take turns.
+  private <V, A extends AnnotationValue> Long intern(
+      V value, SecondaryIndex<V, Long, A> valueIndex, Function<V, A> constructor) {
     assertInTransaction();
-    ReferenceValue av = new ReferenceValue(value);
-    return persist(av);
+    if (config.isInternAnnotationValues() && value != null) {
+      A existing = valueIndex.get(currentTransaction(), value, LockMode.RMW);
+      if (existing != null) {
+        TAGDTO pending = transactionState.get().pendingDTOs.get(existing.getDbId());
+        AnnotationValue interned = pending != null ? (AnnotationValue) pending : existing;
+        interned.incrementReferenceCount();
+        persistAtCommit(interned);
+        return interned.getDbId();
+      }
+      // written now, also in bulk-load mode, so the value index finds it for the next use
+      A created = constructor.apply(value);
+      put(created);
+      return created.getDbId();
+    }
+    return persist(constructor.apply(value));
   }
 
   @Override
   public StringAnnotationValue getStringAnnotationValue(final Long id) {
-    return da.stringAnnotationValueById.get(id);
+    assertInTransaction();
+    return getDTO(id, da.stringAnnotationValueById, dto -> dto);
   }
 
   @Override
   public NumberAnnotationValue getNumberAnnotationValue(final Long id) {
-    return da.numberAnnotationValueById.get(id);
+    assertInTransaction();
+    return getDTO(id, da.numberAnnotationValueById, dto -> dto);
   }
 
   @Override
   public BooleanAnnotationValue getBooleanAnnotationValue(final Long id) {
-    return da.booleanAnnotationValueById.get(id);
+    assertInTransaction();
+    return getDTO(id, da.booleanAnnotationValueById, dto -> dto);
   }
 
   @Override
   public ReferenceValue getReferenceValue(final Long id) {
-    return da.referenceValueById.get(id);
+    assertInTransaction();
+    return getDTO(id, da.referenceValueById, dto -> dto);
+  }
+
+  @Override
+  public <A extends AnnotationValue> List<A> getAnnotationValues(
+      Class<A> valueClass, long[] valueIds) {
+    assertInTransaction();
+    PrimaryIndex<Long, A> index = da.getPrimaryIndexForClass(valueClass);
+    if (index == null) {
+      throw new RuntimeException("unhandled class: " + valueClass);
+    }
+    return getDTOs(valueIds, index, dto -> dto);
+  }
+
+  // Batch reads: whatever is not pending or cached is read with one cursor, in key order, so a
+  // document's nodes (that got their ids in sequence) are read from neighbouring btree leaves.
+  private <T extends TAGDTO, W> List<W> getWrappers(
+      long[] ids, PrimaryIndex<Long, T> index, UnaryOperator<T> afterRead, Function<T, W> wrap) {
+    List<T> dtos = getDTOs(ids, index, afterRead);
+    List<W> wrappers = new ArrayList<>(dtos.size());
+    for (T dto : dtos) {
+      wrappers.add(dto == null ? null : wrap.apply(dto));
+    }
+    return wrappers;
+  }
+
+  private <T extends TAGDTO> List<T> getDTOs(
+      long[] ids, PrimaryIndex<Long, T> index, UnaryOperator<T> afterRead) {
+    long start = System.nanoTime();
+    TransactionState state = transactionState.get();
+    Class<T> dtoClass = index.getEntityClass();
+    List<T> dtos = new ArrayList<>(ids.length);
+    long[] toRead = new long[ids.length];
+    int readCount = 0;
+    for (long id : ids) {
+      T dto = null;
+      TAGDTO pending = state.pendingDTOs.get(id);
+      if (pending != null) {
+        dto = dtoClass.isInstance(pending) ? dtoClass.cast(pending) : null;
+      } else {
+        byte[] data = state.writtenIds.contains(id) ? null : cache.get(id, dtoClass);
+        if (data != null) {
+          dto = afterRead.apply(decode(index, id, data));
+        } else {
+          toRead[readCount++] = id;
+        }
+      }
+      dtos.add(dto);
+    }
+    if (readCount > 0) {
+      long[] sortedIds = Arrays.stream(toRead, 0, readCount).sorted().distinct().toArray();
+      Object[] loads = new Object[sortedIds.length];
+      for (int i = 0; i < sortedIds.length; i++) {
+        if (!state.writtenIds.contains(sortedIds[i])) {
+          loads[i] = cache.startLoad(sortedIds[i]);
+        }
+      }
+      LongObjectHashMap<byte[]> read = null;
+      try {
+        read = readInKeyOrder(index, sortedIds);
+      } finally {
+        for (int i = 0; i < sortedIds.length; i++) {
+          if (loads[i] != null) {
+            byte[] data = read == null ? null : read.get(sortedIds[i]);
+            cache.put(sortedIds[i], dtoClass, data, loads[i]);
+          }
+        }
+      }
+      for (int i = 0; i < ids.length; i++) {
+        long id = ids[i];
+        if (dtos.get(i) == null && read.containsKey(id)) {
+          dtos.set(i, afterRead.apply(decode(index, id, read.get(id))));
+        }
+      }
+    }
+    metrics.record(Operation.GET_BATCH, start);
+    return dtos;
+  }
+
+  private LongObjectHashMap<byte[]> readInKeyOrder(
+      PrimaryIndex<Long, ?> index, long[] sortedIds) {
+    LongObjectHashMap<byte[]> read = new LongObjectHashMap<>(sortedIds.length);
+    EntryBinding<Long> keyBinding = index.getKeyBinding();
+    DatabaseEntry key = new DatabaseEntry();
+    DatabaseEntry data = new DatabaseEntry();
+    try (Cursor cursor =
+        index.getDatabase().openCursor(currentTransaction(), CursorConfig.READ_COMMITTED)) {
+      boolean positioned = false;
+      for (long id : sortedIds) {
+        // ids of one document are mostly consecutive, so try the next record before searching
+        boolean found =
+            positioned
+                && cursor.getNext(key, data, LOCK_MODE) == OperationStatus.SUCCESS
+                && keyBinding.entryToObject(key) == id;
+        if (!found) {
+          keyBinding.objectToEntry(id, key);
+          found = cursor.getSearchKey(key, data, LOCK_MODE) == OperationStatus.SUCCESS;
+        }
+        if (found) {
+          // a new array for every read, as the entry does not reuse its buffer
+          read.put(id, data.getData());
+        }
+        positioned = found;
+      }
+    }
+    return read;
+  }
+
+  private static class TransactionState {
+    final Transaction tx;
+    final long startNanos = System.nanoTime();
+    final Map<Long, TAGDTO> pendingDTOs = new TreeMap<>();
+    final Set<Long> writtenIds = new HashSet<>();
+    // the documents that were read or written in this transaction
+    final Map<Long, TAGDocumentDTO> documents = new HashMap<>();
+    TAGTextChunkDTO textChunk;
+    StringBuilder textChunkBuilder;
+    Long lastChunkId;
+    String lastChunkText;
+    IdBlockAllocator.DocumentIdBlocks currentIdBlocks;
+
+    TransactionState(Transaction tx) {
+      this.tx = tx;
+    }
+
+    /** Sets the text of the chunk that is being filled, and returns it. */
+    TAGTextChunkDTO closeTextChunk() {
+      TAGTextChunkDTO chunk = textChunk;
+      if (chunk != null) {
+        chunk.setText(textChunkBuilder.toString());
+        textChunk = null;
+        textChunkBuilder = null;
+      }
+      return chunk;
+    }
   }
 }
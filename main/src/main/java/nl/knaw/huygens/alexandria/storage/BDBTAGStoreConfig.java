@@ -0,0 +1,258 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.sleepycat.je.Durability;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Options for opening a {@link BDBTAGStore}.
+ *
+ * <p>In bulk-load mode every {@link BDBTAGStore#persist} is buffered in memory, and the buffer is
+ * written once, in key order, when the outermost {@code runInTransaction} finishes; a new dto gets
+ * its id from the sequence right away. Interned annotation values are the exception: a new one is
+ * written at once, so that the next use of the same value finds it. That transaction is committed
+ * without syncing the log; the log is synced when the store is closed. This trades durability for
+ * throughput: if the process dies before {@link BDBTAGStore#close()}, the store recovers to a
+ * consistent state that may be missing any of the loaded documents, so the load should be rerun.
+ *
+ * <p>The cache size is the maximum number of records whose stored bytes the store keeps around
+ * between reads; every read decodes a dto of its own from them. 0 disables the cache. The text
+ * graphs of documents, which are much larger, are kept apart, up to the text graph cache size; a
+ * read-only store keeps them decoded and frozen, so that they are shared by all readers.
+ *
+ * <p>The text chunk size is the maximum number of characters of text node content that is stored
+ * together in one record; 0 (the default) stores the text in the text node records themselves, as
+ * stores have always done.
+ *
+ * <p>With annotation value interning (off by default), identical string, number, boolean and
+ * reference values share one record, which counts its references.
+ *
+ * <p>Opening a store for writing records the current entity versions (text nodes 3, with a chunk
+ * reference, and annotation values 2, with a reference count) in its catalog, whatever the options;
+ * records written before are evolved when they are read, and read as they were. The options change
+ * the records themselves: with chunks, text nodes only point into chunk records, and interned
+ * values are shared by the annotations that use them. Either can be turned on for an existing
+ * store, but a store written with it on should keep it on, and can no longer be read by releases
+ * without these entity versions.
+ *
+ * <p>The sync policy sets how durable a commit is: {@code SYNC} (the default) writes and syncs the
+ * log, {@code WRITE_NO_SYNC} only writes it to the file system, which survives a crash of the
+ * process but not of the machine, and {@code NO_SYNC} leaves it in memory. With group commit, a
+ * {@code SYNC} commit writes the log without syncing it and then waits for a sync that is shared
+ * with the transactions that commit at the same time. A commit that fails is tried again, up to the
+ * maximum number of attempts, with a wait in between that doubles from the initial to the maximum
+ * backoff.
+ *
+ * <p>With an id block size above 0, the text nodes, markup and other records that are created for
+ * a document get their ids from blocks of that many consecutive ids, one for each record type, so
+ * that the records of a document are stored together. The default is 0, which takes every id
+ * straight from the shared sequence.
+ *
+ * <p>By default the BDB log is cleaned by the BDB cleaner thread, which can be tuned with the
+ * {@code je.cleaner} parameters in a {@code je.properties} file in the store directory. Log
+ * compaction (off by default) takes over from the cleaner thread: every interval, when less than
+ * the minimum utilization percentage of the log is live data, it cleans log files one at a time,
+ * with a pause in between to leave I/O to the transactions that are running. Closing the store
+ * does not clean the log.
+ *
+ * <p>With the metrics MBean on, the {@link TAGStoreMetrics} of the store are registered with the
+ * platform MBean server while the store is open.
+ */
+public class BDBTAGStoreConfig {
+  private boolean readOnly = false;
+  private boolean bulkLoad = false;
+  private long cacheSize = 10_000;
+  private long textGraphCacheSize = 100;
+  private int textChunkSize = 0;
+  private boolean internAnnotationValues = false;
+  private Durability.SyncPolicy syncPolicy = Durability.SyncPolicy.SYNC;
+  private boolean groupCommit = false;
+  private int maxCommitAttempts = 5;
+  private long initialCommitBackoffMillis = 10;
+  private long maxCommitBackoffMillis = 1000;
+  private int idBlockSize = 0;
+  private boolean metricsMBean = false;
+  private boolean logCompaction = false;
+  private long logCompactionIntervalMillis = 60_000;
+  private int logCompactionMinUtilization = 50;
+  private long logCompactionPauseMillis = 100;
+
+  public BDBTAGStoreConfig setReadOnly(final boolean readOnly) {
+    this.readOnly = readOnly;
+    return this;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  public BDBTAGStoreConfig setBulkLoad(final boolean bulkLoad) {
+    this.bulkLoad = bulkLoad;
+    return this;
+  }
+
+  public boolean isBulkLoad() {
+    return bulkLoad;
+  }
+
+  public BDBTAGStoreConfig setCacheSize(final long cacheSize) {
+    this.cacheSize = cacheSize;
+    return this;
+  }
+
+  public long getCacheSize() {
+    return cacheSize;
+  }
+
+  public BDBTAGStoreConfig setTextGraphCacheSize(final long textGraphCacheSize) {
+    this.textGraphCacheSize = textGraphCacheSize;
+    return this;
+  }
+
+  public long getTextGraphCacheSize() {
+    return textGraphCacheSize;
+  }
+
+  public BDBTAGStoreConfig setTextChunkSize(final int textChunkSize) {
+    this.textChunkSize = textChunkSize;
+    return this;
+  }
+
+  public int getTextChunkSize() {
+    return textChunkSize;
+  }
+
+  public BDBTAGStoreConfig setInternAnnotationValues(final boolean internAnnotationValues) {
+    this.internAnnotationValues = internAnnotationValues;
+    return this;
+  }
+
+  public boolean isInternAnnotationValues() {
+    return internAnnotationValues;
+  }
+
+  public BDBTAGStoreConfig setSyncPolicy(final Durability.SyncPolicy syncPolicy) {
+    this.syncPolicy = checkNotNull(syncPolicy);
+    return this;
+  }
+
+  public Durability.SyncPolicy getSyncPolicy() {
+    return syncPolicy;
+  }
+
+  public BDBTAGStoreConfig setGroupCommit(final boolean groupCommit) {
+    this.groupCommit = groupCommit;
+    return this;
+  }
+
+  public boolean isGroupCommit() {
+    return groupCommit;
+  }
+
+  public BDBTAGStoreConfig setMaxCommitAttempts(final int maxCommitAttempts) {
+    checkArgument(maxCommitAttempts > 0, "maxCommitAttempts should be at least 1");
+    this.maxCommitAttempts = maxCommitAttempts;
+    return this;
+  }
+
+  public int getMaxCommitAttempts() {
+    return maxCommitAttempts;
+  }
+
+  public BDBTAGStoreConfig setCommitBackoffMillis(final long initialMillis, final long maxMillis) {
+    checkArgument(
+        0 <= initialMillis && initialMillis <= maxMillis,
+        "expected 0 <= initialMillis <= maxMillis");
+    this.initialCommitBackoffMillis = initialMillis;
+    this.maxCommitBackoffMillis = maxMillis;
+    return this;
+  }
+
+  public long getInitialCommitBackoffMillis() {
+    return initialCommitBackoffMillis;
+  }
+
+  public long getMaxCommitBackoffMillis() {
+    return maxCommitBackoffMillis;
+  }
+
+  public BDBTAGStoreConfig setIdBlockSize(final int idBlockSize) {
+    checkArgument(idBlockSize >= 0, "idBlockSize should not be negative");
+    this.idBlockSize = idBlockSize;
+    return this;
+  }
+
+  public int getIdBlockSize() {
+    return idBlockSize;
+  }
+
+  public BDBTAGStoreConfig setMetricsMBean(final boolean metricsMBean) {
+    this.metricsMBean = metricsMBean;
+    return this;
+  }
+
+  public boolean isMetricsMBean() {
+    return metricsMBean;
+  }
+
+  public BDBTAGStoreConfig setLogCompaction(final boolean logCompaction) {
+    this.logCompaction = logCompaction;
+    return this;
+  }
+
+  public boolean isLogCompaction() {
+    return logCompaction;
+  }
+
+  public BDBTAGStoreConfig setLogCompactionIntervalMillis(final long intervalMillis) {
+    checkArgument(intervalMillis > 0, "intervalMillis should be positive");
+    this.logCompactionIntervalMillis = intervalMillis;
+    return this;
+  }
+
+  public long getLogCompactionIntervalMillis() {
+    return logCompactionIntervalMillis;
+  }
+
+  public BDBTAGStoreConfig setLogCompactionMinUtilization(final int minUtilization) {
+    checkArgument(
+        0 <= minUtilization && minUtilization <= 90, "minUtilization should be from 0 to 90");
+    this.logCompactionMinUtilization = minUtilization;
+    return this;
+  }
+
+  public int getLogCompactionMinUtilization() {
+    return logCompactionMinUtilization;
+  }
+
+  public BDBTAGStoreConfig setLogCompactionPauseMillis(final long pauseMillis) {
+    checkArgument(pauseMillis >= 0, "pauseMillis should not be negative");
+    this.logCompactionPauseMillis = pauseMillis;
+    return this;
+  }
+
+  public long getLogCompactionPauseMillis() {
+    return logCompactionPauseMillis;
+  }
+}
@@ -0,0 +1,87 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of the commits of a {@link BDBTAGStore}, since it was created. */
+public class CommitMetrics {
+  final LongAdder commits = new LongAdder();
+  final LongAdder retries = new LongAdder();
+  final LongAdder failures = new LongAdder();
+  final LongAdder syncs = new LongAdder();
+  final LongAdder syncFailures = new LongAdder();
+  final LongAdder groupedCommits = new LongAdder();
+  final LongAdder backoffMillis = new LongAdder();
+
+  /** The number of transactions that were committed. */
+  public long getCommits() {
+    return commits.sum();
+  }
+
+  /** The number of times a failed commit was tried again. */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /** The number of commits that still failed after the last attempt. */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /** The number of log syncs done by group commit. */
+  public long getSyncs() {
+    return syncs.sum();
+  }
+
+  /** The number of committed transactions whose group commit sync failed. */
+  public long getSyncFailures() {
+    return syncFailures.sum();
+  }
+
+  /** The number of group commits that were made durable by a sync that another thread ran. */
+  public long getGroupedCommits() {
+    return groupedCommits.sum();
+  }
+
+  /** The total time spent waiting between commit attempts. */
+  public long getBackoffMillis() {
+    return backoffMillis.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "commits="
+        + getCommits()
+        + ", retries="
+        + getRetries()
+        + ", failures="
+        + getFailures()
+        + ", syncs="
+        + getSyncs()
+        + ", syncFailures="
+        + getSyncFailures()
+        + ", groupedCommits="
+        + getGroupedCommits()
+        + ", backoffMillis="
+        + getBackoffMillis();
+  }
+}
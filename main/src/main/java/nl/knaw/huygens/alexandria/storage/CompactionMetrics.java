@@ -0,0 +1,63 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of the background log compaction of a {@link BDBTAGStore}, since it was created. */
+public class CompactionMetrics {
+  final LongAdder runs = new LongAdder();
+  final LongAdder filesCleaned = new LongAdder();
+  final LongAdder checkpoints = new LongAdder();
+  final LongAdder reclaimedBytes = new LongAdder();
+
+  /** The number of compaction passes that looked at the log. */
+  public long getRuns() {
+    return runs.sum();
+  }
+
+  /** The number of log files that were cleaned. */
+  public long getFilesCleaned() {
+    return filesCleaned.sum();
+  }
+
+  /** The number of checkpoints forced after cleaning. */
+  public long getCheckpoints() {
+    return checkpoints.sum();
+  }
+
+  /** The number of bytes the log shrunk by. */
+  public long getReclaimedBytes() {
+    return reclaimedBytes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "runs="
+        + getRuns()
+        + ", filesCleaned="
+        + getFilesCleaned()
+        + ", checkpoints="
+        + getCheckpoints()
+        + ", reclaimedBytes="
+        + getReclaimedBytes();
+  }
+}
@@ -26,9 +26,12 @@ import java.util.Map;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.persist.EntityStore;
 import com.sleepycat.persist.PrimaryIndex;
+import com.sleepycat.persist.SecondaryIndex;
 
 import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextChunkDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextGraphDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
 
 public class DataAccessor {
@@ -37,6 +40,8 @@ public class DataAccessor {
   final PrimaryIndex<Long, TAGDocumentDTO> documentById;
   final PrimaryIndex<Long, TAGTextNodeDTO> textNodeById;
   final PrimaryIndex<Long, TAGMarkupDTO> markupById;
+  final PrimaryIndex<Long, TAGTextChunkDTO> textChunkById;
+  final PrimaryIndex<Long, TAGTextGraphDTO> textGraphByDocumentId;
 
   final PrimaryIndex<Long, StringAnnotationValue> stringAnnotationValueById;
   final PrimaryIndex<Long, BooleanAnnotationValue> booleanAnnotationValueById;
@@ -45,18 +50,33 @@ public class DataAccessor {
   final PrimaryIndex<Long, MapAnnotationValue> mapAnnotationValueById;
   final PrimaryIndex<Long, ReferenceValue> referenceValueById;
 
+  final SecondaryIndex<String, Long, StringAnnotationValue> stringAnnotationValueByValue;
+  final SecondaryIndex<Boolean, Long, BooleanAnnotationValue> booleanAnnotationValueByValue;
+  final SecondaryIndex<Double, Long, NumberAnnotationValue> numberAnnotationValueByValue;
+  final SecondaryIndex<String, Long, ReferenceValue> referenceValueByValue;
+
   Map<Class, PrimaryIndex> indexMap = new HashMap<>();
 
   public DataAccessor(EntityStore store) throws DatabaseException {
     documentById = initIndex(store, TAGDocumentDTO.class);
     textNodeById = initIndex(store, TAGTextNodeDTO.class);
     markupById = initIndex(store, TAGMarkupDTO.class);
+    textChunkById = initIndex(store, TAGTextChunkDTO.class);
+    textGraphByDocumentId = store.getPrimaryIndex(Long.class, TAGTextGraphDTO.class);
     stringAnnotationValueById = initIndex(store, StringAnnotationValue.class);
     booleanAnnotationValueById = initIndex(store, BooleanAnnotationValue.class);
     numberAnnotationValueById = initIndex(store, NumberAnnotationValue.class);
     listAnnotationValueById = initIndex(store, ListAnnotationValue.class);
     mapAnnotationValueById = initIndex(store, MapAnnotationValue.class);
     referenceValueById = initIndex(store, ReferenceValue.class);
+
+    stringAnnotationValueByValue =
+        store.getSecondaryIndex(stringAnnotationValueById, String.class, "value");
+    booleanAnnotationValueByValue =
+        store.getSecondaryIndex(booleanAnnotationValueById, Boolean.class, "value");
+    numberAnnotationValueByValue =
+        store.getSecondaryIndex(numberAnnotationValueById, Double.class, "value");
+    referenceValueByValue = store.getSecondaryIndex(referenceValueById, String.class, "value");
   }
 
   public <T> PrimaryIndex<Long, T> getPrimaryIndexForClass(final Class<T> dtoClass) {
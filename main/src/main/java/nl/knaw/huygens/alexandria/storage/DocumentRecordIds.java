@@ -0,0 +1,144 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.knaw.huc.di.tag.model.graph.TextGraph;
+import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+import nl.knaw.huc.di.tag.model.graph.edges.ListItemEdge;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+
+/**
+ * The ids of the records of a document, per record type and in key order: its text nodes, markup
+ * and annotation values, and those of the rich text annotation documents it refers to.
+ */
+class DocumentRecordIds {
+  private final TAGStore store;
+  private final Set<Long> documentIds = new TreeSet<>();
+  private final Set<Long> textNodeIds = new TreeSet<>();
+  private final Set<Long> markupIds = new TreeSet<>();
+  private final Map<Class<? extends AnnotationValue>, Set<Long>> annotationValueIds =
+      new LinkedHashMap<>();
+
+  private DocumentRecordIds(TAGStore store) {
+    this.store = store;
+  }
+
+  /** Reads the document (and its text graph) to find the ids; to be called in a transaction. */
+  static DocumentRecordIds of(TAGStore store, Long documentId) {
+    DocumentRecordIds recordIds = new DocumentRecordIds(store);
+    recordIds.collectDocument(documentId);
+    return recordIds;
+  }
+
+  Set<Long> getDocumentIds() {
+    return documentIds;
+  }
+
+  long[] getTextNodeIds() {
+    return toArray(textNodeIds);
+  }
+
+  long[] getMarkupIds() {
+    return toArray(markupIds);
+  }
+
+  Map<Class<? extends AnnotationValue>, long[]> getAnnotationValueIds() {
+    Map<Class<? extends AnnotationValue>, long[]> ids = new LinkedHashMap<>();
+    annotationValueIds.forEach((valueClass, valueIds) -> ids.put(valueClass, toArray(valueIds)));
+    return ids;
+  }
+
+  private void collectDocument(Long documentId) {
+    if (!documentIds.add(documentId)) {
+      return;
+    }
+    TAGDocumentDTO document = store.getDocumentDTO(documentId);
+    if (document == null) {
+      return;
+    }
+    TextGraph textGraph = document.getTextGraph();
+    textNodeIds.addAll(document.getTextNodeIds());
+    Set<Long> documentMarkupIds = new TreeSet<>(document.getMarkupIds());
+    documentMarkupIds.addAll(textGraph.getLayerRootMap().values());
+    markupIds.addAll(documentMarkupIds);
+    for (Long markupId : documentMarkupIds) {
+      collectAnnotationValues(markupId, textGraph);
+    }
+  }
+
+  private void collectAnnotationValues(Long nodeId, TextGraph textGraph) {
+    for (Edge edge : textGraph.getOutgoingEdges(nodeId)) {
+      AnnotationType type;
+      if (edge instanceof AnnotationEdge) {
+        type = ((AnnotationEdge) edge).getAnnotationType();
+      } else if (edge instanceof ListItemEdge) {
+        type = ((ListItemEdge) edge).getAnnotationType();
+      } else {
+        continue;
+      }
+      for (Long valueId : textGraph.getTargets(edge)) {
+        collectAnnotationValue(valueId, type, textGraph);
+      }
+    }
+  }
+
+  private void collectAnnotationValue(Long valueId, AnnotationType type, TextGraph textGraph) {
+    switch (type) {
+      case String:
+        addValueId(StringAnnotationValue.class, valueId);
+        break;
+      case Number:
+        addValueId(NumberAnnotationValue.class, valueId);
+        break;
+      case Boolean:
+        addValueId(BooleanAnnotationValue.class, valueId);
+        break;
+      case Reference:
+        addValueId(ReferenceValue.class, valueId);
+        break;
+      case List:
+        addValueId(ListAnnotationValue.class, valueId);
+        collectAnnotationValues(valueId, textGraph);
+        break;
+      case Map:
+        addValueId(MapAnnotationValue.class, valueId);
+        collectAnnotationValues(valueId, textGraph);
+        break;
+      case RichText:
+        collectDocument(valueId);
+        break;
+    }
+  }
+
+  private void addValueId(Class<? extends AnnotationValue> valueClass, Long valueId) {
+    annotationValueIds.computeIfAbsent(valueClass, c -> new TreeSet<>()).add(valueId);
+  }
+
+  private static long[] toArray(Set<Long> ids) {
+    return ids.stream().mapToLong(Long::longValue).toArray();
+  }
+}
@@ -0,0 +1,87 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Lets concurrent commits share one log sync. A transaction is committed without syncing the log,
+ * and then waits until a sync that was started after its commit has finished. The first thread
+ * that has to wait runs the sync for everybody that committed before it started; the threads that
+ * commit while that sync is running are covered by the next one.
+ */
+class GroupCommit {
+  private final Runnable sync;
+  private final CommitMetrics metrics;
+
+  private long committed = 0;
+  private long synced = 0;
+  private boolean syncing = false;
+
+  GroupCommit(Runnable sync, CommitMetrics metrics) {
+    this.sync = sync;
+    this.metrics = metrics;
+  }
+
+  /** To be called right after a commit without sync; returns when that commit is on disk. */
+  void awaitSync() {
+    long ticket;
+    synchronized (this) {
+      ticket = ++committed;
+    }
+    boolean grouped = true;
+    while (true) {
+      long upTo;
+      synchronized (this) {
+        while (syncing && synced < ticket) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for the log to be synced", e);
+          }
+        }
+        if (synced >= ticket) {
+          break;
+        }
+        // no sync running that covers this commit, so this thread runs the next one
+        syncing = true;
+        grouped = false;
+        upTo = committed;
+      }
+      boolean done = false;
+      try {
+        sync.run();
+        metrics.syncs.increment();
+        done = true;
+      } finally {
+        synchronized (this) {
+          syncing = false;
+          if (done) {
+            synced = Math.max(synced, upTo);
+          }
+          notifyAll();
+        }
+      }
+    }
+    if (grouped) {
+      metrics.groupedCommits.increment();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sleepycat.je.Sequence;
+
+/**
+ * Hands out the ids of the records of one document from blocks of consecutive ids, one block at a
+ * time per record type, that are reserved from the store's id sequence. The records of a document
+ * then end up next to each other in key order, even when several documents are imported at the
+ * same time, and the shared sequence is only updated once per block.
+ *
+ * <p>The blocks are kept with the store, not with a transaction, so a document that is changed in
+ * many small transactions goes on with the blocks it has. Only the blocks of the documents that
+ * were used last are kept; the ids left in the blocks of other documents, and those taken by
+ * transactions that were rolled back, are not used.
+ */
+class IdBlockAllocator {
+  private static final int MAX_DOCUMENTS = 1024;
+
+  private final Sequence sequence;
+  private final int blockSize;
+  private final Map<Long, DocumentIdBlocks> documentIdBlocks =
+      new LinkedHashMap<Long, DocumentIdBlocks>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, DocumentIdBlocks> eldest) {
+          return size() > MAX_DOCUMENTS;
+        }
+      };
+
+  IdBlockAllocator(Sequence sequence, int blockSize) {
+    this.sequence = sequence;
+    this.blockSize = blockSize;
+  }
+
+  /** The id blocks for the records of the document. */
+  synchronized DocumentIdBlocks forDocument(Long documentId) {
+    return documentIdBlocks.computeIfAbsent(documentId, id -> new DocumentIdBlocks());
+  }
+
+  /** The id blocks for the records of one document, shared by the transactions that use it. */
+  class DocumentIdBlocks {
+    // per record type: the next id, and the end of its block
+    private final Map<Class<?>, long[]> blocks = new HashMap<>();
+
+    synchronized long nextId(Class<?> recordType) {
+      long[] block = blocks.computeIfAbsent(recordType, t -> new long[2]);
+      if (block[0] == block[1]) {
+        // auto-commit, so the reservation does not wait for the current transaction to finish
+        block[0] = sequence.get(null, blockSize);
+        block[1] = block[0] + blockSize;
+      }
+      return block[0]++;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of powers of two nanoseconds. Recording is a few adder updates, so it
+ * is cheap enough to leave on; the percentiles are the upper bounds of their buckets, so they are
+ * accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    long duration = Math.max(nanos, 0);
+    buckets[BUCKETS - Long.numberOfLeadingZeros(duration)].increment();
+    count.increment();
+    totalNanos.add(duration);
+    maxNanos.accumulate(duration);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public double getMeanMicros() {
+    long n = count.sum();
+    return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+  }
+
+  public double getMaxMicros() {
+    return maxNanos.get() / 1000.0;
+  }
+
+  /** The duration that the given fraction (between 0 and 1) of the recorded durations stay under. */
+  public double getPercentileMicros(double fraction) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long rank = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        // bucket i holds the durations from 2^(i-1) up to 2^i nanoseconds
+        return Math.min(Math.pow(2, i), maxNanos.get()) / 1000.0;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, max=%.1fus",
+        getCount(),
+        getMeanMicros(),
+        getPercentileMicros(0.5),
+        getPercentileMicros(0.99),
+        getMaxMicros());
+  }
+}
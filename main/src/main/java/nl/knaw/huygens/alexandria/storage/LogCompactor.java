@@ -0,0 +1,146 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sleepycat.je.CheckpointConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cleans the log of a BDB environment in the background, in place of the BDB cleaner thread. Every
+ * interval, when the utilization of the log has dropped below the minimum, it cleans one log file
+ * at a time, with a pause in between to leave I/O to the foreground, until the log is back at the
+ * minimum. Running transactions do not hold it up, so the log is also cleaned under steady traffic.
+ * The cleaned files are deleted by the checkpoint that follows.
+ */
+class LogCompactor {
+  private static final Logger LOG = LoggerFactory.getLogger(LogCompactor.class);
+  private static final StatsConfig FAST_STATS = new StatsConfig().setFast(true);
+  private static final CheckpointConfig FORCE = new CheckpointConfig().setForce(true);
+
+  private final Environment environment;
+  private final int minUtilization;
+  private final long pauseMillis;
+  private final CompactionMetrics metrics;
+  private final ScheduledExecutorService executor;
+  private volatile boolean stopped = false;
+
+  /**
+   * @param minUtilization the percentage of live data in the log below which it is cleaned
+   */
+  LogCompactor(
+      Environment environment,
+      int minUtilization,
+      long intervalMillis,
+      long pauseMillis,
+      CompactionMetrics metrics) {
+    this.environment = environment;
+    this.minUtilization = minUtilization;
+    this.pauseMillis = pauseMillis;
+    this.metrics = metrics;
+    this.executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "tagstore-log-compactor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(
+        this::scheduledRun, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void scheduledRun() {
+    try {
+      compact(false);
+    } catch (RuntimeException e) {
+      // an exception would cancel the following runs
+      LOG.warn("log compaction failed: {}", e.toString());
+    }
+  }
+
+  /**
+   * Cleans the log; unless forced, only when it is below the minimum utilization. Returns the
+   * number of bytes the log shrunk by.
+   */
+  synchronized long compact(boolean force) {
+    if (stopped) {
+      return 0;
+    }
+    EnvironmentStats stats = environment.getStats(FAST_STATS);
+    if (!force && stats.getCurrentMinUtilization() >= minUtilization) {
+      return 0;
+    }
+    metrics.runs.increment();
+    long logSizeBefore = stats.getTotalLogSize();
+    int cleaned = 0;
+    while (!stopped && environment.cleanLogFile()) {
+      cleaned++;
+      if (!pause()) {
+        break;
+      }
+    }
+    if (cleaned == 0) {
+      return 0;
+    }
+    environment.checkpoint(FORCE);
+    metrics.checkpoints.increment();
+    metrics.filesCleaned.add(cleaned);
+    long reclaimed =
+        Math.max(0, logSizeBefore - environment.getStats(FAST_STATS).getTotalLogSize());
+    metrics.reclaimedBytes.add(reclaimed);
+    LOG.debug("cleaned {} log files, reclaimed {} bytes", cleaned, reclaimed);
+    return reclaimed;
+  }
+
+  private boolean pause() {
+    try {
+      Thread.sleep(pauseMillis);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Stops the compaction, after the log file that is being cleaned, if any. The environment must
+   * not be closed before this returns.
+   */
+  void stop() {
+    stopped = true;
+    executor.shutdown();
+    try {
+      // not shutdownNow(): interrupting BDB I/O invalidates the environment
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.warn("log compaction did not stop in time");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+
+import nl.knaw.huygens.alexandria.LongObjectHashMap;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A {@link TAGStore} that keeps everything on the heap, for pipelines that import, export and
+ * forget. There is no file I/O: persisted dtos are kept as they are, {@link #close()} keeps the data
+ * (so the store can be reused like a reopened {@link BDBTAGStore}) and {@link #clear()} drops it.
+ *
+ * <p>Transactions only mark the scope in which persisting is allowed; nothing is rolled back when a
+ * transaction fails. The store is not thread-safe, use one per thread.
+ */
+public class MemoryTAGStore implements TAGStore {
+  private final LongObjectHashMap<TAGDTO> dtos = new LongObjectHashMap<>();
+  private long lastId = 0;
+  private boolean transactionOpen = false;
+
+  @Override
+  public void open() {}
+
+  @Override
+  public void close() {
+    transactionOpen = false;
+  }
+
+  public void clear() {
+    dtos.clear();
+  }
+
+  @Override
+  public Long persist(TAGDTO tagdto) {
+    checkNotNull(tagdto);
+    assertInTransaction();
+    Long id = tagdto.getDbId();
+    if (id == null) {
+      id = ++lastId;
+      tagdto.setDbId(id);
+    }
+    dtos.put(id, tagdto);
+    return id;
+  }
+
+  @Override
+  public void persistAtCommit(TAGDTO tagdto) {
+    persist(tagdto);
+  }
+
+  @Override
+  public void remove(TAGDTO tagdto) {
+    checkNotNull(tagdto);
+    assertInTransaction();
+    if (tagdto.getDbId() != null) {
+      dtos.remove(tagdto.getDbId());
+    }
+  }
+
+  private <T extends TAGDTO> T get(Long id, Class<T> dtoClass) {
+    TAGDTO dto = id == null ? null : dtos.get(id);
+    return dtoClass.isInstance(dto) ? dtoClass.cast(dto) : null;
+  }
+
+  // Document
+  @Override
+  public TAGDocumentDTO getDocumentDTO(Long documentId) {
+    assertInTransaction();
+    return get(documentId, TAGDocumentDTO.class);
+  }
+
+  @Override
+  public TAGDocument getDocument(Long documentId) {
+    return new TAGDocument(this, getDocumentDTO(documentId));
+  }
+
+  @Override
+  public TAGDocument createDocument() {
+    TAGDocumentDTO documentDTO = new TAGDocumentDTO();
+    persist(documentDTO);
+    documentDTO.initialize();
+    return new TAGDocument(this, documentDTO);
+  }
+
+  // TextNode
+  @Override
+  public TAGTextNodeDTO getTextNodeDTO(Long textNodeId) {
+    assertInTransaction();
+    return get(textNodeId, TAGTextNodeDTO.class);
+  }
+
+  @Override
+  public TAGTextNode createTextNode(String content) {
+    TAGTextNodeDTO tagTextNodeDTO = new TAGTextNodeDTO(content);
+    persist(tagTextNodeDTO);
+    return new TAGTextNode(this, tagTextNodeDTO);
+  }
+
+  @Override
+  public TAGTextNode createTextNode() {
+    return createTextNode("");
+  }
+
+  @Override
+  public TAGTextNode getTextNode(Long textNodeId) {
+    return new TAGTextNode(this, getTextNodeDTO(textNodeId));
+  }
+
+  @Override
+  public List<TAGTextNode> getTextNodes(long[] textNodeIds) {
+    return streamTextNodes(LongStream.of(textNodeIds)).collect(toList());
+  }
+
+  @Override
+  public Stream<TAGTextNode> streamTextNodes(LongStream textNodeIds) {
+    return textNodeIds
+        .mapToObj(this::getTextNodeDTO)
+        .map(dto -> dto == null ? null : new TAGTextNode(this, dto));
+  }
+
+  // Markup
+  @Override
+  public TAGMarkupDTO getMarkupDTO(Long markupId) {
+    assertInTransaction();
+    return get(markupId, TAGMarkupDTO.class);
+  }
+
+  @Override
+  public TAGMarkup createMarkup(TAGDocument document, String tagName) {
+    TAGMarkupDTO markupDTO = TAGMarkup.newMarkupDTO(document, tagName);
+    persist(markupDTO);
+    return new TAGMarkup(this, markupDTO);
+  }
+
+  @Override
+  public TAGMarkup getMarkup(Long markupId) {
+    return new TAGMarkup(this, getMarkupDTO(markupId));
+  }
+
+  @Override
+  public List<TAGMarkup> getMarkups(long[] markupIds) {
+    return LongStream.of(markupIds)
+        .mapToObj(this::getMarkupDTO)
+        .map(dto -> dto == null ? null : new TAGMarkup(this, dto))
+        .collect(toList());
+  }
+
+  // transaction
+  @Override
+  public void runInTransaction(Runnable runner) {
+    runInTransaction(
+        () -> {
+          runner.run();
+          return null;
+        });
+  }
+
+  @Override
+  public <A> A runInTransaction(Supplier<A> supplier) {
+    if (transactionOpen) {
+      return supplier.get();
+    }
+    transactionOpen = true;
+    try {
+      return supplier.get();
+    } finally {
+      transactionOpen = false;
+    }
+  }
+
+  private void assertInTransaction() {
+    Preconditions.checkState(
+        transactionOpen,
+        "We should be in an open transaction at this point, use runInTransaction()!");
+  }
+
+  @Override
+  public Long createStringAnnotationValue(final String value) {
+    return persist(new StringAnnotationValue(value));
+  }
+
+  @Override
+  public Long createBooleanAnnotationValue(final Boolean value) {
+    return persist(new BooleanAnnotationValue(value));
+  }
+
+  @Override
+  public Long createNumberAnnotationValue(Double value) {
+    return persist(new NumberAnnotationValue(value));
+  }
+
+  @Override
+  public Long createListAnnotationValue() {
+    return persist(new ListAnnotationValue());
+  }
+
+  @Override
+  public Long createMapAnnotationValue() {
+    return persist(new MapAnnotationValue());
+  }
+
+  @Override
+  public Long createReferenceValue(String value) {
+    return persist(new ReferenceValue(value));
+  }
+
+  @Override
+  public StringAnnotationValue getStringAnnotationValue(final Long id) {
+    return get(id, StringAnnotationValue.class);
+  }
+
+  @Override
+  public NumberAnnotationValue getNumberAnnotationValue(final Long id) {
+    return get(id, NumberAnnotationValue.class);
+  }
+
+  @Override
+  public BooleanAnnotationValue getBooleanAnnotationValue(final Long id) {
+    return get(id, BooleanAnnotationValue.class);
+  }
+
+  @Override
+  public <A extends AnnotationValue> List<A> getAnnotationValues(
+      Class<A> valueClass, long[] valueIds) {
+    return LongStream.of(valueIds).mapToObj(id -> get(id, valueClass)).collect(toList());
+  }
+
+  @Override
+  public ReferenceValue getReferenceValue(final Long id) {
+    return get(id, ReferenceValue.class);
+  }
+}
@@ -0,0 +1,423 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link TAGStore} that spreads its documents over a number of {@link BDBTAGStore}s, each in a
+ * directory (and so with a log and cleaner) of its own, so that documents that are imported in
+ * parallel are written to different environments, and possibly different disks.
+ *
+ * <p>Every shard gives out ids from its own range: the top bits of an id are the number of the
+ * shard, so every record is found by its id alone. The directories have to be given in the same
+ * order every time the store is opened; an existing {@link BDBTAGStore} can be used as the first
+ * shard.
+ *
+ * <p>The first document that is created in a transaction goes to the next shard in turn; other
+ * documents created in the same transaction (like those of rich text annotations) go to the same
+ * shard. Text nodes and annotation values go to the shard of the document that was last created or
+ * read on the same thread, and markup goes to the shard of its document. The document, text node
+ * and markup wrappers call back into this store.
+ *
+ * <p>A transaction runs a transaction on every shard; they are committed one after the other, so a
+ * transaction is atomic per shard, but if a commit fails, the shards that committed before it keep
+ * their changes.
+ *
+ * <p>Every shard has a lock manager of its own, and none of them sees the locks held in the other
+ * shards. So when two transactions wait for each other's locks in different shards, that deadlock
+ * is not detected: it only ends when the lock timeout of one minute runs out in one of them, which
+ * then fails with a {@link com.sleepycat.je.LockTimeoutException}.
+ */
+public class ShardedTAGStore implements TAGStore {
+  static final int SHARD_SHIFT = 56;
+  static final int MAX_SHARDS = 1 << (63 - SHARD_SHIFT);
+  private static final int BATCH_SIZE = 1000;
+
+  private final List<BDBTAGStore> shards;
+  private final AtomicLong documentCount = new AtomicLong();
+  private final ThreadLocal<Integer> currentShard = ThreadLocal.withInitial(() -> 0);
+  private final ThreadLocal<Integer> documentShard = new ThreadLocal<>();
+  private final ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(() -> false);
+
+  public ShardedTAGStore(List<String> dbDirs, BDBTAGStoreConfig config) {
+    checkNotNull(dbDirs);
+    checkNotNull(config);
+    checkArgument(
+        !dbDirs.isEmpty() && dbDirs.size() <= MAX_SHARDS,
+        "expected from 1 to %s directories",
+        MAX_SHARDS);
+    List<BDBTAGStore> stores = new ArrayList<>(dbDirs.size());
+    try {
+      for (int shard = 0; shard < dbDirs.size(); shard++) {
+        BDBTAGStore store = new BDBTAGStore(dbDirs.get(shard), config, firstId(shard));
+        store.setOwner(this);
+        stores.add(store);
+      }
+    } catch (RuntimeException e) {
+      stores.forEach(BDBTAGStore::close);
+      throw e;
+    }
+    this.shards = Collections.unmodifiableList(stores);
+  }
+
+  static long firstId(int shard) {
+    return (long) shard << SHARD_SHIFT;
+  }
+
+  public List<BDBTAGStore> getShards() {
+    return shards;
+  }
+
+  int shardOf(long id) {
+    int shard = (int) (id >>> SHARD_SHIFT);
+    checkArgument(shard < shards.size(), "id %s is not from any of the shards", id);
+    return shard;
+  }
+
+  private BDBTAGStore shardFor(Long id) {
+    return shards.get(shardOf(checkNotNull(id)));
+  }
+
+  private BDBTAGStore shardFor(TAGDTO tagdto) {
+    if (tagdto.getDbId() != null) {
+      return shardFor(tagdto.getDbId());
+    }
+    if (tagdto instanceof TAGDocumentDTO) {
+      return useShard(documentShard());
+    }
+    if (tagdto instanceof TAGMarkupDTO) {
+      return useShard(shardOf(((TAGMarkupDTO) tagdto).getDocumentId()));
+    }
+    return currentShard();
+  }
+
+  private int documentShard() {
+    Integer shard = documentShard.get();
+    if (shard == null) {
+      shard = (int) Math.floorMod(documentCount.getAndIncrement(), (long) shards.size());
+      documentShard.set(shard);
+    }
+    return shard;
+  }
+
+  private BDBTAGStore useShard(int shard) {
+    currentShard.set(shard);
+    return shards.get(shard);
+  }
+
+  private BDBTAGStore useShardOf(Long documentId) {
+    return useShard(shardOf(checkNotNull(documentId)));
+  }
+
+  private BDBTAGStore currentShard() {
+    return shards.get(currentShard.get());
+  }
+
+  @Override
+  public void open() {
+    shards.forEach(BDBTAGStore::open);
+  }
+
+  @Override
+  public void close() {
+    RuntimeException failure = null;
+    for (BDBTAGStore shard : shards) {
+      try {
+        shard.close();
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public Long persist(TAGDTO tagdto) {
+    checkNotNull(tagdto);
+    return shardFor(tagdto).persist(tagdto);
+  }
+
+  @Override
+  public void persistAtCommit(TAGDTO tagdto) {
+    checkNotNull(tagdto);
+    shardFor(tagdto).persistAtCommit(tagdto);
+  }
+
+  @Override
+  public void remove(TAGDTO tagdto) {
+    checkNotNull(tagdto);
+    shardFor(tagdto.getDbId()).remove(tagdto);
+  }
+
+  // Document
+  @Override
+  public TAGDocumentDTO getDocumentDTO(Long documentId) {
+    return useShardOf(documentId).getDocumentDTO(documentId);
+  }
+
+  @Override
+  public TAGDocument getDocument(Long documentId) {
+    return useShardOf(documentId).getDocument(documentId);
+  }
+
+  @Override
+  public TAGDocument createDocument() {
+    return useShard(documentShard()).createDocument();
+  }
+
+  // TextNode
+  @Override
+  public TAGTextNodeDTO getTextNodeDTO(Long textNodeId) {
+    return shardFor(textNodeId).getTextNodeDTO(textNodeId);
+  }
+
+  @Override
+  public TAGTextNode createTextNode(String content) {
+    return currentShard().createTextNode(content);
+  }
+
+  @Override
+  public TAGTextNode createTextNode() {
+    return currentShard().createTextNode();
+  }
+
+  @Override
+  public TAGTextNode getTextNode(Long textNodeId) {
+    return shardFor(textNodeId).getTextNode(textNodeId);
+  }
+
+  @Override
+  public List<TAGTextNode> getTextNodes(long[] textNodeIds) {
+    return getFromShards(textNodeIds, BDBTAGStore::getTextNodes);
+  }
+
+  @Override
+  public Stream<TAGTextNode> streamTextNodes(LongStream textNodeIds) {
+    PrimitiveIterator.OfLong ids = textNodeIds.iterator();
+    Iterator<List<TAGTextNode>> batches =
+        new Iterator<List<TAGTextNode>>() {
+          @Override
+          public boolean hasNext() {
+            return ids.hasNext();
+          }
+
+          @Override
+          public List<TAGTextNode> next() {
+            long[] batch = new long[BATCH_SIZE];
+            int size = 0;
+            while (size < BATCH_SIZE && ids.hasNext()) {
+              batch[size++] = ids.nextLong();
+            }
+            return getTextNodes(Arrays.copyOf(batch, size));
+          }
+        };
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+        .flatMap(List::stream);
+  }
+
+  // Markup
+  @Override
+  public TAGMarkupDTO getMarkupDTO(Long markupId) {
+    return shardFor(markupId).getMarkupDTO(markupId);
+  }
+
+  @Override
+  public TAGMarkup createMarkup(TAGDocument document, String tagName) {
+    return useShardOf(document.getDbId()).createMarkup(document, tagName);
+  }
+
+  @Override
+  public TAGMarkup getMarkup(Long markupId) {
+    return shardFor(markupId).getMarkup(markupId);
+  }
+
+  @Override
+  public List<TAGMarkup> getMarkups(long[] markupIds) {
+    return getFromShards(markupIds, BDBTAGStore::getMarkups);
+  }
+
+  /**
+   * Reads the ids per shard, in one batch per shard, and puts the results back in the order of the
+   * ids.
+   */
+  private <T> List<T> getFromShards(long[] ids, BiFunction<BDBTAGStore, long[], List<T>> get) {
+    int shardCount = shards.size();
+    if (shardCount == 1) {
+      return get.apply(shards.get(0), ids);
+    }
+    int[] counts = new int[shardCount];
+    for (long id : ids) {
+      counts[shardOf(id)]++;
+    }
+    long[][] shardIds = new long[shardCount][];
+    for (int shard = 0; shard < shardCount; shard++) {
+      shardIds[shard] = new long[counts[shard]];
+      counts[shard] = 0;
+    }
+    for (long id : ids) {
+      int shard = shardOf(id);
+      shardIds[shard][counts[shard]++] = id;
+    }
+    List<List<T>> shardResults = new ArrayList<>(shardCount);
+    for (int shard = 0; shard < shardCount; shard++) {
+      shardResults.add(
+          shardIds[shard].length == 0
+              ? Collections.emptyList()
+              : get.apply(shards.get(shard), shardIds[shard]));
+      counts[shard] = 0;
+    }
+    List<T> results = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      int shard = shardOf(id);
+      results.add(shardResults.get(shard).get(counts[shard]++));
+    }
+    return results;
+  }
+
+  // transaction
+  @Override
+  public void runInTransaction(Runnable runner) {
+    runInTransaction(
+        () -> {
+          runner.run();
+          return null;
+        });
+  }
+
+  @Override
+  public <A> A runInTransaction(Supplier<A> supplier) {
+    if (inTransaction.get()) {
+      // the shard transactions are open already
+      return supplier.get();
+    }
+    inTransaction.set(true);
+    try {
+      return runInShardTransactions(0, supplier);
+    } finally {
+      inTransaction.remove();
+      documentShard.remove();
+    }
+  }
+
+  private <A> A runInShardTransactions(int shard, Supplier<A> supplier) {
+    if (shard == shards.size()) {
+      return supplier.get();
+    }
+    return shards.get(shard).runInTransaction(() -> runInShardTransactions(shard + 1, supplier));
+  }
+
+  // annotation values
+  @Override
+  public Long createStringAnnotationValue(String value) {
+    return currentShard().createStringAnnotationValue(value);
+  }
+
+  @Override
+  public Long createBooleanAnnotationValue(Boolean value) {
+    return currentShard().createBooleanAnnotationValue(value);
+  }
+
+  @Override
+  public Long createNumberAnnotationValue(Double value) {
+    return currentShard().createNumberAnnotationValue(value);
+  }
+
+  @Override
+  public Long createListAnnotationValue() {
+    return currentShard().createListAnnotationValue();
+  }
+
+  @Override
+  public Long createMapAnnotationValue() {
+    return currentShard().createMapAnnotationValue();
+  }
+
+  @Override
+  public Long createReferenceValue(String value) {
+    return currentShard().createReferenceValue(value);
+  }
+
+  @Override
+  public StringAnnotationValue getStringAnnotationValue(Long id) {
+    return shardFor(id).getStringAnnotationValue(id);
+  }
+
+  @Override
+  public NumberAnnotationValue getNumberAnnotationValue(Long id) {
+    return shardFor(id).getNumberAnnotationValue(id);
+  }
+
+  @Override
+  public BooleanAnnotationValue getBooleanAnnotationValue(Long id) {
+    return shardFor(id).getBooleanAnnotationValue(id);
+  }
+
+  @Override
+  public ReferenceValue getReferenceValue(Long id) {
+    return shardFor(id).getReferenceValue(id);
+  }
+
+  @Override
+  public <A extends AnnotationValue> List<A> getAnnotationValues(
+      Class<A> valueClass, long[] valueIds) {
+    return getFromShards(valueIds, (shard, ids) -> shard.getAnnotationValues(valueClass, ids));
+  }
+
+  /**
+   * Warms up the document through this store, so that text nodes and annotation values that ended
+   * up in other shards than the document are read as well.
+   */
+  @Override
+  public long warmUp(Long documentId, WarmUpConfig warmUpConfig) {
+    checkState(!inTransaction.get(), "We're already inside an open transaction!");
+    return BDBTAGStore.warmUp(this, documentId, warmUpConfig);
+  }
+}
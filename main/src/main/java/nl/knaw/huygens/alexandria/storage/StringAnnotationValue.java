@@ -20,9 +20,13 @@ package nl.knaw.huygens.alexandria.storage;
  * #L%
  */
 import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.SecondaryKey;
 
-@Entity(version = 1)
+import static com.sleepycat.persist.model.Relationship.MANY_TO_ONE;
+
+@Entity(version = 2)
 public class StringAnnotationValue extends AnnotationValue {
+  @SecondaryKey(relate = MANY_TO_ONE)
   String value;
 
   private StringAnnotationValue() {}
@@ -0,0 +1,305 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.knaw.huc.di.tag.model.graph.TextGraphCodec;
+import nl.knaw.huc.di.tag.tagml.importer.Position;
+import nl.knaw.huc.di.tag.tagml.importer.Range;
+import nl.knaw.huc.di.tag.tagml.importer.RangePair;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
+
+import static nl.knaw.huygens.alexandria.DataIOUtil.readNullableLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.readString;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeNullableLong;
+import static nl.knaw.huygens.alexandria.DataIOUtil.writeString;
+
+/**
+ * Binary encoding of the dtos of a document (the document itself, its text nodes, markup and
+ * annotation values), for stores and exports that do not go through the BDB class catalog. Every
+ * record starts with a type byte, so {@link #read} needs no other context.
+ */
+public class TAGDTOCodec {
+  private static final byte DOCUMENT = 1;
+  private static final byte TEXT_NODE = 2;
+  private static final byte MARKUP = 3;
+  private static final byte STRING_VALUE = 4;
+  private static final byte NUMBER_VALUE = 5;
+  private static final byte BOOLEAN_VALUE = 6;
+  private static final byte REFERENCE_VALUE = 7;
+  private static final byte LIST_VALUE = 8;
+  private static final byte MAP_VALUE = 9;
+
+  public static void write(TAGDTO dto, DataOutput out) throws IOException {
+    if (dto instanceof TAGDocumentDTO) {
+      out.writeByte(DOCUMENT);
+      writeDocument((TAGDocumentDTO) dto, out);
+
+    } else if (dto instanceof TAGTextNodeDTO) {
+      out.writeByte(TEXT_NODE);
+      out.writeLong(dto.getDbId());
+      writeString(out, ((TAGTextNodeDTO) dto).getText());
+
+    } else if (dto instanceof TAGMarkupDTO) {
+      out.writeByte(MARKUP);
+      writeMarkup((TAGMarkupDTO) dto, out);
+
+    } else if (dto instanceof StringAnnotationValue) {
+      out.writeByte(STRING_VALUE);
+      out.writeLong(dto.getDbId());
+      writeString(out, ((StringAnnotationValue) dto).getValue());
+
+    } else if (dto instanceof NumberAnnotationValue) {
+      out.writeByte(NUMBER_VALUE);
+      out.writeLong(dto.getDbId());
+      Double value = ((NumberAnnotationValue) dto).getValue();
+      out.writeBoolean(value != null);
+      if (value != null) {
+        out.writeDouble(value);
+      }
+
+    } else if (dto instanceof BooleanAnnotationValue) {
+      out.writeByte(BOOLEAN_VALUE);
+      out.writeLong(dto.getDbId());
+      Boolean value = ((BooleanAnnotationValue) dto).getValue();
+      out.writeByte(value == null ? -1 : value ? 1 : 0);
+
+    } else if (dto instanceof ReferenceValue) {
+      out.writeByte(REFERENCE_VALUE);
+      out.writeLong(dto.getDbId());
+      writeString(out, ((ReferenceValue) dto).getValue());
+
+    } else if (dto instanceof ListAnnotationValue) {
+      out.writeByte(LIST_VALUE);
+      out.writeLong(dto.getDbId());
+
+    } else if (dto instanceof MapAnnotationValue) {
+      out.writeByte(MAP_VALUE);
+      out.writeLong(dto.getDbId());
+
+    } else {
+      throw new IOException("unhandled class: " + dto.getClass());
+    }
+  }
+
+  public static TAGDTO read(DataInput in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case DOCUMENT:
+        return readDocument(in);
+      case TEXT_NODE:
+        {
+          long id = in.readLong();
+          TAGTextNodeDTO textNode = new TAGTextNodeDTO(readString(in));
+          textNode.setDbId(id);
+          return textNode;
+        }
+      case MARKUP:
+        return readMarkup(in);
+      case STRING_VALUE:
+        {
+          long id = in.readLong();
+          return withId(new StringAnnotationValue(readString(in)), id);
+        }
+      case NUMBER_VALUE:
+        {
+          long id = in.readLong();
+          Double value = in.readBoolean() ? in.readDouble() : null;
+          return withId(new NumberAnnotationValue(value), id);
+        }
+      case BOOLEAN_VALUE:
+        {
+          long id = in.readLong();
+          byte value = in.readByte();
+          return withId(new BooleanAnnotationValue(value < 0 ? null : value == 1), id);
+        }
+      case REFERENCE_VALUE:
+        {
+          long id = in.readLong();
+          return withId(new ReferenceValue(readString(in)), id);
+        }
+      case LIST_VALUE:
+        return withId(new ListAnnotationValue(), in.readLong());
+      case MAP_VALUE:
+        return withId(new MapAnnotationValue(), in.readLong());
+      default:
+        throw new IOException("unknown record type " + type);
+    }
+  }
+
+  private static TAGDTO withId(TAGDTO dto, long id) {
+    dto.setDbId(id);
+    return dto;
+  }
+
+  private static void writeDocument(TAGDocumentDTO document, DataOutput out) throws IOException {
+    out.writeLong(document.getDbId());
+    writeLongList(out, document.getTextNodeIds());
+    writeLongList(out, document.getMarkupIds());
+    writeDate(out, document.getCreationDate());
+    writeDate(out, document.getModificationDate());
+    TextGraphCodec.write(document.getTextGraph(), out);
+    Map<String, String> namespaces = document.getNamespaces();
+    out.writeInt(namespaces == null ? -1 : namespaces.size());
+    if (namespaces != null) {
+      for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+    }
+    writeString(out, document.getSchemaLocation());
+    Map<Long, RangePair> markupRangeMap = document.getMarkupRangeMap();
+    out.writeInt(markupRangeMap.size());
+    for (Map.Entry<Long, RangePair> entry : markupRangeMap.entrySet()) {
+      out.writeLong(entry.getKey());
+      RangePair rangePair = entry.getValue();
+      writeRange(out, rangePair.getStartRange());
+      writeRange(out, rangePair.getEndRange());
+    }
+  }
+
+  private static TAGDocumentDTO readDocument(DataInput in) throws IOException {
+    TAGDocumentDTO document = new TAGDocumentDTO();
+    document.setDbId(in.readLong());
+    document.setTextNodeIds(readLongList(in));
+    document.setMarkupIds(readLongList(in));
+    document.setCreationDate(readDate(in));
+    document.setModificationDate(readDate(in));
+    document.setTextGraph(TextGraphCodec.read(in));
+    int namespaceCount = in.readInt();
+    if (namespaceCount >= 0) {
+      Map<String, String> namespaces = new LinkedHashMap<>();
+      for (int i = 0; i < namespaceCount; i++) {
+        namespaces.put(readString(in), readString(in));
+      }
+      document.setNamespaces(namespaces);
+    }
+    document.setSchemaLocation(readString(in));
+    int rangeCount = in.readInt();
+    Map<Long, RangePair> markupRangeMap = new HashMap<>();
+    for (int i = 0; i < rangeCount; i++) {
+      long markupId = in.readLong();
+      markupRangeMap.put(markupId, new RangePair(readRange(in), readRange(in)));
+    }
+    document.setMarkupRangeMap(markupRangeMap);
+    return document;
+  }
+
+  private static void writeMarkup(TAGMarkupDTO markup, DataOutput out) throws IOException {
+    out.writeLong(markup.getDbId());
+    out.writeLong(markup.getDocumentId());
+    writeString(out, markup.getTag());
+    writeString(out, markup.getMarkupId());
+    writeString(out, markup.getSuffix());
+    writeNullableLong(out, markup.getDominatedMarkupId().orElse(null));
+    writeNullableLong(out, markup.getDominatingMarkupId().orElse(null));
+    out.writeBoolean(markup.isOptional());
+    out.writeBoolean(markup.isDiscontinuous());
+    Set<String> layers = markup.getLayers();
+    out.writeInt(layers.size());
+    for (String layer : layers) {
+      writeString(out, layer);
+    }
+  }
+
+  private static TAGMarkupDTO readMarkup(DataInput in) throws IOException {
+    long id = in.readLong();
+    long documentId = in.readLong();
+    TAGMarkupDTO markup = new TAGMarkupDTO(documentId, readString(in));
+    markup.setDbId(id);
+    markup.setMarkupId(readString(in));
+    markup.setSuffix(readString(in));
+    markup.setDominatedMarkupId(readNullableLong(in));
+    markup.setDominatingMarkupId(readNullableLong(in));
+    markup.setOptional(in.readBoolean());
+    markup.setDiscontinuous(in.readBoolean());
+    int layerCount = in.readInt();
+    Set<String> layers = new TreeSet<>();
+    for (int i = 0; i < layerCount; i++) {
+      layers.add(readString(in));
+    }
+    markup.addAllLayers(layers);
+    return markup;
+  }
+
+  private static void writeLongList(DataOutput out, List<Long> list) throws IOException {
+    out.writeInt(list.size());
+    for (Long value : list) {
+      out.writeLong(value);
+    }
+  }
+
+  private static List<Long> readLongList(DataInput in) throws IOException {
+    int size = in.readInt();
+    List<Long> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(in.readLong());
+    }
+    return list;
+  }
+
+  private static void writeDate(DataOutput out, Date date) throws IOException {
+    writeNullableLong(out, date == null ? null : date.getTime());
+  }
+
+  private static Date readDate(DataInput in) throws IOException {
+    Long time = readNullableLong(in);
+    return time == null ? null : new Date(time);
+  }
+
+  private static void writeRange(DataOutput out, Range range) throws IOException {
+    out.writeBoolean(range != null);
+    if (range != null) {
+      writePosition(out, range.getStartPosition());
+      writePosition(out, range.getEndPosition());
+    }
+  }
+
+  private static Range readRange(DataInput in) throws IOException {
+    return in.readBoolean() ? new Range(readPosition(in), readPosition(in)) : null;
+  }
+
+  private static void writePosition(DataOutput out, Position position) throws IOException {
+    out.writeBoolean(position != null);
+    if (position != null) {
+      out.writeInt(position.getLine());
+      out.writeInt(position.getCharacter());
+    }
+  }
+
+  private static Position readPosition(DataInput in) throws IOException {
+    return in.readBoolean() ? new Position(in.readInt(), in.readInt()) : null;
+  }
+}
@@ -105,7 +105,10 @@ public class TAGDocument {
               relevantLayers.remove(DEFAULT_LAYER);
             }
             relevantLayers.forEach(
-                l -> documentDTO.textGraph.linkMarkupToTextNodeForLayer(dbId, textNodeDbId, l));
+                l ->
+                    documentDTO
+                        .getTextGraphForUpdate()
+                        .linkMarkupToTextNodeForLayer(dbId, textNodeDbId, l));
           });
     }
     update();
@@ -113,11 +116,12 @@ public class TAGDocument {
   }
 
   public Stream<TAGTextNode> getTextNodeStream() {
-    return documentDTO.getTextNodeIds().stream().map(store::getTextNode);
+    return store.streamTextNodes(documentDTO.getTextNodeIds().stream().mapToLong(Long::longValue));
   }
 
   public Stream<TAGMarkup> getMarkupStream() {
-    return documentDTO.getMarkupIds().stream().map(store::getMarkup);
+    long[] markupIds = documentDTO.getMarkupIds().stream().mapToLong(Long::longValue).toArray();
+    return store.getMarkups(markupIds).stream();
   }
 
   public TAGTextNode getFirstTextNode() {
@@ -174,7 +178,7 @@ public class TAGDocument {
 
   public Stream<TAGMarkup> getMarkupStreamForTextNode(TAGTextNode tn) {
     return documentDTO
-        .textGraph
+        .getTextGraph()
         .getMarkupIdStreamForTextNodeId(tn.getDbId())
         .distinct()
         .map(store::getMarkup);
@@ -192,13 +196,13 @@ public class TAGDocument {
 
   public void addLayer(
       final String layerName, final TAGMarkup rootMarkup, final String parentLayer) {
-    documentDTO.textGraph.setLayerRootMarkup(layerName, rootMarkup.getDbId());
+    documentDTO.getTextGraphForUpdate().setLayerRootMarkup(layerName, rootMarkup.getDbId());
     openMarkupStackForLayer.put(layerName, new ArrayDeque<>());
     openMarkupStackForLayer.get(layerName).push(rootMarkup);
     if (parentLayer != null) {
       Deque<TAGMarkup> openMarkupStack = openMarkupStackForLayer.get(parentLayer);
       linkToParentMarkup(rootMarkup, parentLayer, openMarkupStack);
-      documentDTO.textGraph.getParentLayerMap().put(layerName, parentLayer);
+      documentDTO.getTextGraphForUpdate().getParentLayerMap().put(layerName, parentLayer);
     }
   }
 
@@ -210,12 +214,9 @@ public class TAGDocument {
       Long parentMarkupId = openMarkupStack.peek().getDbId();
       Long childMarkupId = rootMarkup.getDbId();
       if (!Objects.equals(parentMarkupId, childMarkupId)) {
-        TextGraph textGraph = documentDTO.textGraph;
+        TextGraph textGraph = documentDTO.getTextGraphForUpdate();
         boolean edgeExists =
-            textGraph.getOutgoingEdges(parentMarkupId).stream()
-                .filter(LayerEdge.class::isInstance)
-                .map(LayerEdge.class::cast)
-                .filter(e -> e.hasLayer(parentLayer))
+            textGraph.getOutgoingEdges(parentMarkupId, EdgeType.hasMarkup, parentLayer).stream()
                 .anyMatch(
                     e -> {
                       Collection<Long> targets = textGraph.getTargets(e);
@@ -229,7 +230,7 @@ public class TAGDocument {
   }
 
   public Set<String> getLayerNames() {
-    return documentDTO.textGraph.getLayerNames();
+    return documentDTO.getLayerNames();
   }
 
   public void openMarkupInLayer(TAGMarkup markup, String layerName) {
@@ -260,14 +261,15 @@ public class TAGDocument {
 
   public Stream<TAGTextNode> getTextNodeStreamForMarkupInLayers(
       final TAGMarkup markup, Set<String> layers) {
-    return documentDTO
-        .textGraph
-        .getTextNodeIdStreamForMarkupIdInLayers(markup.getDbId(), layers)
-        .map(store::getTextNode);
+    return store.streamTextNodes(
+        documentDTO
+            .getTextGraph()
+            .getTextNodeIdStreamForMarkupIdInLayers(markup.getDbId(), layers)
+            .mapToLong(Long::longValue));
   }
 
   public void linkParentlessLayerRootsToDocument() {
-    documentDTO.textGraph.linkParentlessLayerRootsToDocument();
+    documentDTO.getTextGraphForUpdate().linkParentlessLayerRootsToDocument();
   }
 
   /* private methods */
@@ -278,7 +280,7 @@ public class TAGDocument {
 
   private void update() {
     documentDTO.updateModificationDate();
-    store.persist(documentDTO);
+    store.persistAtCommit(documentDTO);
   }
 
   private void associateTextNodeWithMarkupForLayer(
@@ -292,7 +294,9 @@ public class TAGDocument {
     //        .computeIfAbsent(
     //            tagTextNode.getResourceId(),
     //            f -> new LinkedHashSet<>()).add(markupId);
-    documentDTO.textGraph.linkMarkupToTextNodeForLayer(markupId, tagTextNode.getDbId(), layerName);
+    documentDTO
+        .getTextGraphForUpdate()
+        .linkMarkupToTextNodeForLayer(markupId, tagTextNode.getDbId(), layerName);
     update();
   }
 
@@ -303,7 +307,7 @@ public class TAGDocument {
 
   private void disassociateTextNodeFromMarkupForLayer(
       TAGTextNode tagTextNode, Long markupId, String layerName) {
-    documentDTO.textGraph.unlinkMarkupFromTextNodeForLayer(
+    documentDTO.getTextGraphForUpdate().unlinkMarkupFromTextNodeForLayer(
         markupId, tagTextNode.getDbId(), layerName);
     update();
   }
@@ -337,13 +341,13 @@ public class TAGDocument {
 
   // If there is no markup unique to the default layer, remove the default layer
   public void removeDefaultLayerIfUnused() {
-    Long defaultRootMarkupId = documentDTO.textGraph.getLayerRootMap().get(DEFAULT_LAYER);
+    Long defaultRootMarkupId = documentDTO.getTextGraph().getLayerRootMap().get(DEFAULT_LAYER);
     if (defaultRootMarkupId != null) {
       boolean defaultLayerIsUnused =
-          documentDTO.textGraph.getOutgoingEdges(defaultRootMarkupId).stream()
+          documentDTO.getTextGraph().getOutgoingEdges(defaultRootMarkupId).stream()
               .noneMatch(this::isInDefaultLayer);
       if (defaultLayerIsUnused) {
-        documentDTO.textGraph.getLayerRootMap().remove(DEFAULT_LAYER);
+        documentDTO.getTextGraphForUpdate().getLayerRootMap().remove(DEFAULT_LAYER);
         TAGMarkup markup = store.getMarkup(defaultRootMarkupId);
         markup.getLayers().remove(DEFAULT_LAYER);
         store.persist(markup.getDTO());
@@ -359,12 +363,9 @@ public class TAGDocument {
   }
 
   public Stream<Long> getChildMarkupIdStream(Long markupId, String layer) {
-    return documentDTO.textGraph.getOutgoingEdges(markupId).stream()
-        .filter(LayerEdge.class::isInstance)
-        .map(LayerEdge.class::cast)
-        .filter(le -> le.hasLayer(layer))
-        .filter(le -> le.hasType(EdgeType.hasMarkup))
-        .map(documentDTO.textGraph::getTargets)
+    TextGraph textGraph = documentDTO.getTextGraph();
+    return textGraph.getOutgoingEdges(markupId, EdgeType.hasMarkup, layer).stream()
+        .map(textGraph::getTargets)
         .flatMap(Collection::stream);
   }
 }
@@ -29,7 +29,7 @@ import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 
 import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge;
-import nl.knaw.huc.di.tag.model.graph.edges.ContinuationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.EdgeType;
 import nl.knaw.huc.di.tag.tagml.TAGML;
 import nl.knaw.huc.di.tag.tagml.importer.AnnotationInfo;
 import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
@@ -42,15 +42,50 @@ import static nl.knaw.huc.di.tag.tagml.TAGML.DEFAULT_LAYER;
 public class TAGMarkup {
   private final TAGStore store;
   private final TAGMarkupDTO markupDTO;
-  private final TAGDocument document;
+  // looked up when it is first needed, and then kept: reading it again decodes its text graph again
+  private TAGDocument document;
 
   public TAGMarkup(TAGStore store, TAGMarkupDTO markupDTO) {
     checkNotNull(store);
     checkNotNull(markupDTO);
     this.store = store;
     this.markupDTO = markupDTO;
-    this.document = store.getDocument(markupDTO.getDocumentId());
-    update();
+  }
+
+  /**
+   * Split the tag name into tag and markup id ({@code tag=id} or {@code tag@id}) or tag and suffix
+   * ({@code tag~suffix}).
+   */
+  static TAGMarkupDTO newMarkupDTO(TAGDocument document, String tagName) {
+    String tag;
+    String suffix = null;
+    String id = null;
+    if (tagName == null) {
+      tag = "";
+
+    } else if (tagName.contains("~")) {
+      String[] parts = tagName.split("~");
+      tag = parts[0];
+      suffix = parts[1];
+
+    } else if (tagName.contains("=")) {
+      String[] parts = tagName.split("=");
+      tag = parts[0];
+      id = parts[1];
+
+    } else if (tagName.contains("@")) {
+      String[] parts = tagName.split("@");
+      tag = parts[0];
+      id = parts[1];
+
+    } else {
+      tag = tagName;
+    }
+
+    TAGMarkupDTO markupDTO = new TAGMarkupDTO(document.getDbId(), tag);
+    markupDTO.setMarkupId(id);
+    markupDTO.setSuffix(suffix);
+    return markupDTO;
   }
 
   public Long getDbId() {
@@ -100,24 +135,24 @@ public class TAGMarkup {
 
   public Stream<AnnotationInfo> getAnnotationStream() {
     Long markupNode = getDbId();
-    return document.getDTO().textGraph.getOutgoingEdges(markupNode).stream()
-        .filter(AnnotationEdge.class::isInstance)
+    return getDocument().getDTO().getTextGraph()
+        .getOutgoingEdges(markupNode, EdgeType.hasAnnotation).stream()
         .map(AnnotationEdge.class::cast)
         .map(this::toAnnotationInfo);
   }
 
   private AnnotationInfo toAnnotationInfo(final AnnotationEdge annotationEdge) {
-    final Long valueNode = document.getDTO().textGraph.getTargets(annotationEdge).iterator().next();
+    final Long valueNode = getDocument().getDTO().getTextGraph().getTargets(annotationEdge).iterator().next();
     return new AnnotationInfo(
         valueNode, annotationEdge.getAnnotationType(), annotationEdge.getField());
   }
 
   public Stream<TAGTextNode> getTextNodeStream() {
-    return document.getTextNodeStreamForMarkup(this);
+    return getDocument().getTextNodeStreamForMarkup(this);
   }
 
   public Stream<TAGTextNode> getTextNodeStreamForLayers(Set<String> layers) {
-    return document.getTextNodeStreamForMarkupInLayers(this, layers);
+    return getDocument().getTextNodeStreamForMarkupInLayers(this, layers);
   }
 
   public TAGMarkupDTO getDTO() {
@@ -164,8 +199,7 @@ public class TAGMarkup {
   public Optional<TAGMarkup> getDominatedMarkup() {
     return markupDTO
         .getDominatedMarkupId()
-        .map(store::getMarkupDTO)
-        .map(m -> new TAGMarkup(store, m));
+        .map(store::getMarkup);
   }
 
   public void setDominatedMarkup(TAGMarkup dominatedMarkup) {
@@ -179,8 +213,7 @@ public class TAGMarkup {
   public Optional<TAGMarkup> getDominatingMarkup() {
     return markupDTO
         .getDominatingMarkupId()
-        .map(store::getMarkupDTO)
-        .map(m -> new TAGMarkup(store, m));
+        .map(store::getMarkup);
   }
 
   public boolean hasMarkupId() {
@@ -224,19 +257,21 @@ public class TAGMarkup {
 
   public boolean isAnonymous() {
     List<TAGTextNode> textNodesForMarkup =
-        document.getTextNodeStreamForMarkup(this).collect(toList());
+        getDocument().getTextNodeStreamForMarkup(this).collect(toList());
     return textNodesForMarkup.size() == 1 // markup has just 1 textnode
         && textNodesForMarkup.get(0).getText().isEmpty(); // and it's empty
   }
 
   public boolean isSuspended() {
-    return document.getDTO().textGraph.getOutgoingEdges(getDbId()).stream()
-        .anyMatch(ContinuationEdge.class::isInstance);
+    return !getDocument().getDTO().getTextGraph()
+        .getOutgoingEdges(getDbId(), EdgeType.continuesIn)
+        .isEmpty();
   }
 
   public boolean isResumed() {
-    return document.getDTO().textGraph.getIncomingEdges(getDbId()).stream()
-        .anyMatch(ContinuationEdge.class::isInstance);
+    return !getDocument().getDTO().getTextGraph()
+        .getIncomingEdges(getDbId(), EdgeType.continuesIn)
+        .isEmpty();
   }
 
   public boolean matches(TAGMarkup other) {
@@ -282,6 +317,13 @@ public class TAGMarkup {
     store.persist(markupDTO);
   }
 
+  private TAGDocument getDocument() {
+    if (document == null) {
+      document = store.getDocument(markupDTO.getDocumentId());
+    }
+    return document;
+  }
+
   private void setDominatingMarkup(TAGMarkup dominatingMarkup) {
     markupDTO.setDominatingMarkupId(dominatingMarkup.getDbId());
     if (!dominatingMarkup.getDTO().getDominatedMarkupId().isPresent()) {
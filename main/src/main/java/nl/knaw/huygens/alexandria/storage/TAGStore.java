@@ -20,7 +20,10 @@ package nl.knaw.huygens.alexandria.storage;
  * #L%
  */
 
+import java.util.List;
 import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
@@ -35,6 +38,13 @@ public interface TAGStore extends AutoCloseable {
 
   Long persist(TAGDTO tagdto);
 
+  /**
+   * Register a (persisted) dto to be written when the outermost transaction commits. Until then,
+   * the get methods of this store return the registered instance, so repeated mutations only cost
+   * one write per transaction.
+   */
+  void persistAtCommit(TAGDTO tagdto);
+
   void remove(TAGDTO tagdto);
 
   // Document
@@ -53,6 +63,15 @@ public interface TAGStore extends AutoCloseable {
 
   TAGTextNode getTextNode(Long textNodeId);
 
+  /**
+   * Fetch the text nodes with the given ids in one go. The list has the text nodes in the order of
+   * the ids, with null for the ids that are not found.
+   */
+  List<TAGTextNode> getTextNodes(long[] textNodeIds);
+
+  /** Like {@link #getTextNodes(long[])}, but fetching the text nodes batch by batch. */
+  Stream<TAGTextNode> streamTextNodes(LongStream textNodeIds);
+
   // Markup
   TAGMarkupDTO getMarkupDTO(Long markupId);
 
@@ -60,6 +79,22 @@ public interface TAGStore extends AutoCloseable {
 
   TAGMarkup getMarkup(Long markupId);
 
+  /**
+   * Fetch the markups with the given ids in one go. The list has the markups in the order of the
+   * ids, with null for the ids that are not found.
+   */
+  List<TAGMarkup> getMarkups(long[] markupIds);
+
+  /**
+   * Reads the records of a document (its text nodes, markup and annotation values) into the caches
+   * of this store, so that the first traversal of the document does not have to wait for them. To
+   * be called outside of a transaction. Returns the number of records that were read; stores that
+   * keep everything in memory read nothing.
+   */
+  default long warmUp(Long documentId, WarmUpConfig warmUpConfig) {
+    return 0;
+  }
+
   // transaction
   void runInTransaction(Runnable runner);
 
@@ -84,4 +119,10 @@ public interface TAGStore extends AutoCloseable {
   BooleanAnnotationValue getBooleanAnnotationValue(Long id);
 
   ReferenceValue getReferenceValue(Long id);
+
+  /**
+   * Fetch the annotation values of the given class with the given ids in one go. The list has the
+   * values in the order of the ids, with null for the ids that are not found.
+   */
+  <A extends AnnotationValue> List<A> getAnnotationValues(Class<A> valueClass, long[] valueIds);
 }
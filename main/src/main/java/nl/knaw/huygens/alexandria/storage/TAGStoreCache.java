@@ -0,0 +1,107 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Size-bounded cache of the stored form of committed records, keyed on dbId. Only the bytes are
+ * shared: every read decodes its own dto from them, so a dto that one transaction changes is never
+ * seen by another. A load only ends up in the cache when its record was not invalidated while it
+ * was being read, so a slow reader can not put back a version that was replaced in the meantime.
+ * This is tracked per record: writing one record does not keep the loads of other records out.
+ */
+class TAGStoreCache {
+  private final Cache<Long, Record> recordCache;
+  // a token per record that is being loaded; invalidating the record drops its token
+  private final ConcurrentMap<Long, Object> loads = new ConcurrentHashMap<>();
+
+  TAGStoreCache(long maximumSize) {
+    recordCache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /** The stored data of the record, or null when it is not cached as a record of this class. */
+  byte[] get(Long id, Class<?> entityClass) {
+    Record cached = recordCache.getIfPresent(id);
+    return cached != null && cached.entityClass == entityClass ? cached.data : null;
+  }
+
+  /** Starts a load of the record, before it is read; the token goes to {@link #put}. */
+  Object startLoad(Long id) {
+    return loads.computeIfAbsent(id, i -> new Object());
+  }
+
+  /**
+   * Ends the load, and caches the stored data of the record when it was not invalidated since the
+   * load started. The data is null when the record was not found or could not be read; the array
+   * should not be changed afterwards.
+   */
+  void put(Long id, Class<?> entityClass, byte[] data, Object load) {
+    loads.computeIfPresent(
+        id,
+        (i, running) -> {
+          if (running != load) {
+            // another load, that started after this one was invalidated
+            return running;
+          }
+          if (data != null) {
+            recordCache.put(id, new Record(entityClass, data));
+          }
+          return null;
+        });
+  }
+
+  void invalidate(Long id) {
+    // the load first: once it is gone, a running load can not put the record back
+    loads.remove(id);
+    recordCache.invalidate(id);
+  }
+
+  void invalidateAll(Collection<Long> ids) {
+    ids.forEach(loads::remove);
+    recordCache.invalidateAll(ids);
+  }
+
+  void clear() {
+    loads.clear();
+    recordCache.invalidateAll();
+  }
+
+  CacheStats getStats() {
+    return recordCache.stats();
+  }
+
+  private static class Record {
+    final Class<?> entityClass;
+    final byte[] data;
+
+    Record(Class<?> entityClass, byte[] data) {
+      this.entityClass = entityClass;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.common.cache.CacheStats;
+import com.sleepycat.je.EnvironmentStats;
+
+/**
+ * Counts and latencies of the operations of a {@link BDBTAGStore}, together with its commit, cache
+ * and BDB environment statistics. The BDB statistics are the cheap ("fast") ones, read when they
+ * are asked for.
+ *
+ * <p>{@code COMMIT} and {@code ABORT} are the latencies of whole transactions, from their start
+ * until they were committed (and synced) or rolled back; {@code PERSIST} times every call to
+ * persist a dto, also when its write is left until the commit.
+ */
+public class TAGStoreMetrics implements TAGStoreMetricsMXBean {
+  public enum Operation {
+    PERSIST,
+    REMOVE,
+    GET_DTO,
+    GET_BATCH,
+    COMMIT,
+    ABORT
+  }
+
+  private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+  private final CommitMetrics commitMetrics;
+  private final CompactionMetrics compactionMetrics;
+  private final Supplier<CacheStats> dtoCacheStats;
+  private final Supplier<EnvironmentStats> environmentStats;
+
+  TAGStoreMetrics(
+      CommitMetrics commitMetrics,
+      CompactionMetrics compactionMetrics,
+      Supplier<CacheStats> dtoCacheStats,
+      Supplier<EnvironmentStats> environmentStats) {
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new LatencyHistogram());
+    }
+    this.commitMetrics = commitMetrics;
+    this.compactionMetrics = compactionMetrics;
+    this.dtoCacheStats = dtoCacheStats;
+    this.environmentStats = environmentStats;
+  }
+
+  void record(Operation operation, long startNanos) {
+    latencies.get(operation).record(System.nanoTime() - startNanos);
+  }
+
+  public LatencyHistogram getLatencies(Operation operation) {
+    return latencies.get(operation);
+  }
+
+  public CommitMetrics getCommitMetrics() {
+    return commitMetrics;
+  }
+
+  public CompactionMetrics getCompactionMetrics() {
+    return compactionMetrics;
+  }
+
+  @Override
+  public Map<String, Long> getOperationCounts() {
+    return perOperation(LatencyHistogram::getCount);
+  }
+
+  @Override
+  public Map<String, Double> getOperationMeanMicros() {
+    return perOperation(LatencyHistogram::getMeanMicros);
+  }
+
+  @Override
+  public Map<String, Double> getOperation99thPercentileMicros() {
+    return perOperation(histogram -> histogram.getPercentileMicros(0.99));
+  }
+
+  @Override
+  public long getAborts() {
+    return latencies.get(Operation.ABORT).getCount();
+  }
+
+  @Override
+  public long getCommitRetries() {
+    return commitMetrics.getRetries();
+  }
+
+  @Override
+  public long getCommitFailures() {
+    return commitMetrics.getFailures();
+  }
+
+  @Override
+  public long getLogFilesCleaned() {
+    return compactionMetrics.getFilesCleaned();
+  }
+
+  @Override
+  public long getReclaimedLogBytes() {
+    return compactionMetrics.getReclaimedBytes();
+  }
+
+  @Override
+  public double getDTOCacheHitRate() {
+    return dtoCacheStats.get().hitRate();
+  }
+
+  @Override
+  public long getBDBCacheMisses() {
+    EnvironmentStats stats = environmentStats.get();
+    return stats == null ? 0 : stats.getNCacheMiss();
+  }
+
+  @Override
+  public int getBDBCleanerBacklog() {
+    EnvironmentStats stats = environmentStats.get();
+    return stats == null ? 0 : stats.getCleanerBacklog();
+  }
+
+  @Override
+  public long getBDBLogSize() {
+    EnvironmentStats stats = environmentStats.get();
+    return stats == null ? 0 : stats.getTotalLogSize();
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder dump = new StringBuilder();
+    latencies.forEach(
+        (operation, histogram) ->
+            dump.append(operation).append(": ").append(histogram).append('\n'));
+    dump.append("aborts: ").append(getAborts()).append('\n');
+    dump.append("commits: ").append(commitMetrics).append('\n');
+    dump.append("log compaction: ").append(compactionMetrics).append('\n');
+    dump.append(String.format("dto cache hit rate: %.3f%n", getDTOCacheHitRate()));
+    EnvironmentStats stats = environmentStats.get();
+    if (stats != null) {
+      dump.append("bdb cache misses: ").append(stats.getNCacheMiss()).append('\n');
+      dump.append("bdb cleaner backlog: ").append(stats.getCleanerBacklog()).append('\n');
+      dump.append("bdb log size: ").append(stats.getTotalLogSize()).append('\n');
+    }
+    return dump.toString();
+  }
+
+  @Override
+  public String toString() {
+    return dump();
+  }
+
+  private <V> Map<String, V> perOperation(Function<LatencyHistogram, V> value) {
+    Map<String, V> map = new LinkedHashMap<>();
+    latencies.forEach((operation, histogram) -> map.put(operation.name(), value.apply(histogram)));
+    return map;
+  }
+}
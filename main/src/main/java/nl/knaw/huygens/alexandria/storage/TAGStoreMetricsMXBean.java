@@ -0,0 +1,56 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+
+/** The metrics of a {@link BDBTAGStore}, as exported over JMX. */
+public interface TAGStoreMetricsMXBean {
+  /** Per operation: the number of calls. */
+  Map<String, Long> getOperationCounts();
+
+  /** Per operation: the mean duration in microseconds. */
+  Map<String, Double> getOperationMeanMicros();
+
+  /** Per operation: the duration in microseconds that 99% of the calls stay under. */
+  Map<String, Double> getOperation99thPercentileMicros();
+
+  long getAborts();
+
+  long getCommitRetries();
+
+  long getCommitFailures();
+
+  long getLogFilesCleaned();
+
+  long getReclaimedLogBytes();
+
+  double getDTOCacheHitRate();
+
+  long getBDBCacheMisses();
+
+  int getBDBCleanerBacklog();
+
+  long getBDBLogSize();
+
+  /** All metrics, one per line. */
+  String dump();
+}
@@ -0,0 +1,187 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Exports all records of a {@link BDBTAGStore} to one file, and restores them into an empty store.
+ * Unlike a copy of the BDB log files, a snapshot does not depend on the JE version or configuration.
+ *
+ * <p>Layout (big-endian):
+ *
+ * <pre>
+ * header   magic, format version
+ * records  gzip compressed: per record a 1, the record encoded with {@link TAGDTOCodec} and, for
+ *          annotation values, their reference count; then a 0, the number of records and the
+ *          CRC-32 of everything before it
+ * </pre>
+ *
+ * A snapshot is read in a single pass, and restored in transactions of {@link #BATCH_SIZE}
+ * records; restoring into a store opened in bulk-load mode is the fastest. The checksum is only
+ * checked at the end, so a restore that fails leaves the records read up to then in the store. An
+ * export only sees a consistent state of the store when nothing writes to it in the meantime.
+ */
+public class TAGStoreSnapshot {
+  static final int MAGIC = 0x54414753; // "TAGS"
+  static final int FORMAT_VERSION = 1;
+  static final int BATCH_SIZE = 10_000;
+
+  private static final byte RECORD = 1;
+  private static final byte END = 0;
+
+  /** Writes the snapshot next to the target and then moves it into place. */
+  public static long export(BDBTAGStore store, Path file) throws IOException {
+    Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), "snapshot", ".tmp");
+    long count;
+    try (OutputStream out = Files.newOutputStream(tmpFile)) {
+      count = export(store, out);
+    }
+    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /** Returns the number of records written. */
+  public static long export(BDBTAGStore store, OutputStream out) throws IOException {
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(MAGIC);
+    header.writeInt(FORMAT_VERSION);
+    header.flush();
+    GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out, 1 << 16), 1 << 16);
+    CRC32 crc = new CRC32();
+    DataOutputStream data = new DataOutputStream(new CheckedOutputStream(gzip, crc));
+    long[] count = {0};
+    try {
+      store.runInTransaction(
+          () ->
+              store.forEachRecord(
+                  dto -> {
+                    try {
+                      writeRecord(dto, data);
+                    } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                  }));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    data.writeByte(END);
+    data.writeLong(count[0]);
+    data.flush();
+    long checksum = crc.getValue();
+    data.writeLong(checksum);
+    gzip.finish();
+    gzip.flush();
+    return count[0];
+  }
+
+  public static long restore(Path file, BDBTAGStore store) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return restore(in, store);
+    }
+  }
+
+  /**
+   * Restores the records of the snapshot, with their ids, into the store, which should be empty.
+   * Returns the number of records restored.
+   */
+  public static long restore(InputStream in, BDBTAGStore store) throws IOException {
+    checkState(store.runInTransaction(store::isEmpty), "the store to restore into is not empty");
+    DataInputStream header = new DataInputStream(in);
+    if (header.readInt() != MAGIC) {
+      throw new IOException("not a TAG store snapshot");
+    }
+    int formatVersion = header.readInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("unsupported snapshot format version " + formatVersion);
+    }
+    CRC32 crc = new CRC32();
+    DataInputStream data =
+        new DataInputStream(
+            new CheckedInputStream(
+                new GZIPInputStream(new BufferedInputStream(in, 1 << 16), 1 << 16), crc));
+    long count = 0;
+    long maxId = 0;
+    List<TAGDTO> batch = new ArrayList<>(BATCH_SIZE);
+    while (data.readByte() == RECORD) {
+      TAGDTO dto = readRecord(data);
+      maxId = Math.max(maxId, dto.getDbId());
+      batch.add(dto);
+      count++;
+      if (batch.size() == BATCH_SIZE) {
+        persistAll(store, batch);
+      }
+    }
+    long expectedCount = data.readLong();
+    long checksum = crc.getValue();
+    long expectedChecksum = data.readLong();
+    if (checksum != expectedChecksum || count != expectedCount) {
+      throw new IOException(
+          "snapshot is corrupt: read " + count + " of " + expectedCount + " records");
+    }
+    persistAll(store, batch);
+    store.reserveIdsUpTo(maxId);
+    return count;
+  }
+
+  private static void writeRecord(TAGDTO dto, DataOutputStream out) throws IOException {
+    out.writeByte(RECORD);
+    TAGDTOCodec.write(dto, out);
+    if (dto instanceof AnnotationValue) {
+      out.writeInt(((AnnotationValue) dto).getReferenceCount());
+    }
+  }
+
+  private static TAGDTO readRecord(DataInputStream in) throws IOException {
+    TAGDTO dto = TAGDTOCodec.read(in);
+    if (dto instanceof AnnotationValue) {
+      ((AnnotationValue) dto).setReferenceCount(in.readInt());
+    }
+    return dto;
+  }
+
+  private static void persistAll(BDBTAGStore store, List<TAGDTO> batch) {
+    store.runInTransaction(() -> batch.forEach(store::persist));
+    batch.clear();
+  }
+}
@@ -34,7 +34,6 @@ public class TAGTextNode {
   public TAGTextNode(TAGStore store, TAGTextNodeDTO textNode) {
     this.store = store;
     this.textNode = textNode;
-    update();
   }
 
   public Long getDbId() {
@@ -0,0 +1,73 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Options for {@link TAGStore#warmUp}.
+ *
+ * <p>The records are read by the given number of threads, in batches. The maximum number of
+ * records is the memory budget of the warm-up; like the cache size of a {@link BDBTAGStore} it
+ * counts records, not bytes. When a document has more records, its markup and annotation values
+ * are read before its text nodes. The progress listener is told how many records have been read
+ * after every batch; it is called from the warm-up threads, one call at a time.
+ */
+public class WarmUpConfig {
+  @FunctionalInterface
+  public interface ProgressListener {
+    void progress(long recordsRead, long recordsToRead);
+  }
+
+  private int parallelism = 4;
+  private long maxRecords = Long.MAX_VALUE;
+  private ProgressListener progressListener = (recordsRead, recordsToRead) -> {};
+
+  public WarmUpConfig setParallelism(final int parallelism) {
+    checkArgument(parallelism > 0, "parallelism should be at least 1");
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public WarmUpConfig setMaxRecords(final long maxRecords) {
+    checkArgument(maxRecords >= 0, "maxRecords should not be negative");
+    this.maxRecords = maxRecords;
+    return this;
+  }
+
+  public long getMaxRecords() {
+    return maxRecords;
+  }
+
+  public WarmUpConfig setProgressListener(final ProgressListener progressListener) {
+    this.progressListener = checkNotNull(progressListener);
+    return this;
+  }
+
+  public ProgressListener getProgressListener() {
+    return progressListener;
+  }
+}
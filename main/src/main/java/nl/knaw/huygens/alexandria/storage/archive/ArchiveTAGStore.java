@@ -0,0 +1,370 @@
+package nl.knaw.huygens.alexandria.storage.archive;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import nl.knaw.huygens.alexandria.storage.AnnotationValue;
+import nl.knaw.huygens.alexandria.storage.BooleanAnnotationValue;
+import nl.knaw.huygens.alexandria.storage.NumberAnnotationValue;
+import nl.knaw.huygens.alexandria.storage.ReferenceValue;
+import nl.knaw.huygens.alexandria.storage.StringAnnotationValue;
+import nl.knaw.huygens.alexandria.storage.TAGDTOCodec;
+import nl.knaw.huygens.alexandria.storage.TAGDocument;
+import nl.knaw.huygens.alexandria.storage.TAGMarkup;
+import nl.knaw.huygens.alexandria.storage.TAGStore;
+import nl.knaw.huygens.alexandria.storage.TAGTextNode;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGMarkupDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
+
+import static java.util.stream.Collectors.toList;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.DOCUMENT_ENTRY_SIZE;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.FORMAT_VERSION;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.HEADER_SIZE;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.INDEX_ENTRY_SIZE;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.MAGIC;
+import static nl.knaw.huygens.alexandria.storage.archive.TAGArchiveWriter.MAX_ARCHIVE_SIZE;
+
+/**
+ * A read-only {@link TAGStore} on top of an archive written by {@link TAGArchiveWriter}. The file
+ * is memory-mapped: opening only reads the header, and a lookup is a binary search over the mapped
+ * index followed by decoding the one record that was asked for. Decoded documents are kept, since
+ * their text graph is the expensive part; text nodes and markup are decoded on every request.
+ *
+ * <p>The store can be shared between threads. Transactions are a no-op, and every method that would
+ * change the archive throws an {@link UnsupportedOperationException}. Archives are limited to 2GB.
+ */
+public class ArchiveTAGStore implements TAGStore {
+  private static final String READ_ONLY = "archive stores are read-only";
+
+  private final Path file;
+  private volatile ByteBuffer buffer;
+  private int recordCount;
+  private int documentCount;
+  private int indexOffset;
+  private final Map<Long, TAGDocumentDTO> documents = new ConcurrentHashMap<>();
+
+  public ArchiveTAGStore(Path file) {
+    this.file = file;
+    open();
+  }
+
+  @Override
+  public void open() {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > MAX_ARCHIVE_SIZE) {
+        throw new IOException(file + " is too large to map (" + size + " bytes)");
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+        throw new IOException(file + " is not a TAG archive");
+      }
+      int formatVersion = mapped.getInt(4);
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IOException(file + " has unsupported format version " + formatVersion);
+      }
+      recordCount = mapped.getInt(8);
+      documentCount = mapped.getInt(12);
+      indexOffset = (int) mapped.getLong(16);
+      buffer = mapped;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // the mapping is released when the buffer is garbage collected
+    buffer = null;
+    documents.clear();
+  }
+
+  public LongStream getDocumentIds() {
+    ByteBuffer b = buffer();
+    return IntStream.range(0, documentCount)
+        .mapToLong(i -> b.getLong(HEADER_SIZE + i * DOCUMENT_ENTRY_SIZE));
+  }
+
+  /** The ids of the text nodes of the document in text order, read straight from the mapping. */
+  public LongStream getTextNodeIdsInTextOrder(Long documentId) {
+    ByteBuffer b = buffer();
+    for (int i = 0; i < documentCount; i++) {
+      int entry = HEADER_SIZE + i * DOCUMENT_ENTRY_SIZE;
+      if (b.getLong(entry) == documentId) {
+        int offset = (int) b.getLong(entry + 8);
+        int length = b.getInt(entry + 16);
+        return IntStream.range(0, length).mapToLong(t -> b.getLong(offset + t * 8));
+      }
+    }
+    return LongStream.empty();
+  }
+
+  @Override
+  public Long persist(TAGDTO tagdto) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public void persistAtCommit(TAGDTO tagdto) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public void remove(TAGDTO tagdto) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  // Document
+  @Override
+  public TAGDocumentDTO getDocumentDTO(Long documentId) {
+    TAGDocumentDTO document = documents.get(documentId);
+    if (document == null) {
+      document = read(documentId, TAGDocumentDTO.class);
+      if (document != null) {
+        // the archive is read-only, and the kept documents are shared between threads
+        document.getTextGraph().freeze();
+        documents.putIfAbsent(documentId, document);
+      }
+    }
+    return document;
+  }
+
+  @Override
+  public TAGDocument getDocument(Long documentId) {
+    return new TAGDocument(this, getDocumentDTO(documentId));
+  }
+
+  @Override
+  public TAGDocument createDocument() {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  // TextNode
+  @Override
+  public TAGTextNodeDTO getTextNodeDTO(Long textNodeId) {
+    return read(textNodeId, TAGTextNodeDTO.class);
+  }
+
+  @Override
+  public TAGTextNode createTextNode(String content) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public TAGTextNode createTextNode() {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public TAGTextNode getTextNode(Long textNodeId) {
+    return new TAGTextNode(this, getTextNodeDTO(textNodeId));
+  }
+
+  @Override
+  public List<TAGTextNode> getTextNodes(long[] textNodeIds) {
+    return streamTextNodes(LongStream.of(textNodeIds)).collect(toList());
+  }
+
+  @Override
+  public Stream<TAGTextNode> streamTextNodes(LongStream textNodeIds) {
+    return textNodeIds
+        .mapToObj(this::getTextNodeDTO)
+        .map(dto -> dto == null ? null : new TAGTextNode(this, dto));
+  }
+
+  // Markup
+  @Override
+  public TAGMarkupDTO getMarkupDTO(Long markupId) {
+    return read(markupId, TAGMarkupDTO.class);
+  }
+
+  @Override
+  public TAGMarkup createMarkup(TAGDocument document, String tagName) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public TAGMarkup getMarkup(Long markupId) {
+    return new TAGMarkup(this, getMarkupDTO(markupId));
+  }
+
+  @Override
+  public List<TAGMarkup> getMarkups(long[] markupIds) {
+    return LongStream.of(markupIds)
+        .mapToObj(this::getMarkupDTO)
+        .map(dto -> dto == null ? null : new TAGMarkup(this, dto))
+        .collect(toList());
+  }
+
+  // transaction
+  @Override
+  public void runInTransaction(Runnable runner) {
+    runner.run();
+  }
+
+  @Override
+  public <A> A runInTransaction(Supplier<A> supplier) {
+    return supplier.get();
+  }
+
+  @Override
+  public Long createStringAnnotationValue(String value) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public Long createBooleanAnnotationValue(Boolean value) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public Long createNumberAnnotationValue(Double value) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public Long createListAnnotationValue() {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public Long createMapAnnotationValue() {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public Long createReferenceValue(String value) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public StringAnnotationValue getStringAnnotationValue(Long id) {
+    return read(id, StringAnnotationValue.class);
+  }
+
+  @Override
+  public NumberAnnotationValue getNumberAnnotationValue(Long id) {
+    return read(id, NumberAnnotationValue.class);
+  }
+
+  @Override
+  public BooleanAnnotationValue getBooleanAnnotationValue(Long id) {
+    return read(id, BooleanAnnotationValue.class);
+  }
+
+  @Override
+  public <A extends AnnotationValue> List<A> getAnnotationValues(
+      Class<A> valueClass, long[] valueIds) {
+    return LongStream.of(valueIds).mapToObj(id -> read(id, valueClass)).collect(toList());
+  }
+
+  @Override
+  public ReferenceValue getReferenceValue(Long id) {
+    return read(id, ReferenceValue.class);
+  }
+
+  private <T extends TAGDTO> T read(Long id, Class<T> dtoClass) {
+    if (id == null) {
+      return null;
+    }
+    ByteBuffer b = buffer();
+    int entry = findIndexEntry(b, id);
+    if (entry < 0) {
+      return null;
+    }
+    int offset = (int) b.getLong(entry + 8);
+    int length = b.getInt(entry + 16);
+    ByteBuffer record = b.duplicate();
+    record.limit(offset + length).position(offset);
+    try {
+      TAGDTO dto = TAGDTOCodec.read(new DataInputStream(new ByteBufferInputStream(record)));
+      return dtoClass.isInstance(dto) ? dtoClass.cast(dto) : null;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int findIndexEntry(ByteBuffer b, long id) {
+    int low = 0;
+    int high = recordCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = indexOffset + mid * INDEX_ENTRY_SIZE;
+      long midId = b.getLong(entry);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  private ByteBuffer buffer() {
+    ByteBuffer b = buffer;
+    if (b == null) {
+      throw new IllegalStateException("archive store " + file + " is closed");
+    }
+    return b;
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, n);
+      return n;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package nl.knaw.huygens.alexandria.storage.archive;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import nl.knaw.huc.di.tag.model.graph.TextGraph;
+import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+import nl.knaw.huc.di.tag.model.graph.edges.ListItemEdge;
+import nl.knaw.huygens.alexandria.storage.AnnotationType;
+import nl.knaw.huygens.alexandria.storage.TAGDTOCodec;
+import nl.knaw.huygens.alexandria.storage.TAGStore;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDTO;
+import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes finished documents, with everything they refer to, to an archive file that can be served
+ * by an {@link ArchiveTAGStore}.
+ *
+ * <p>Layout (big-endian):
+ *
+ * <pre>
+ * header     magic, format version, record count, document count, index offset, data offset
+ * documents  per document: id, offset and length of its text node ids in text order
+ * text order the text node ids of every document, in text order
+ * index      per record, sorted on id: id, offset and length of the encoded record
+ * data       the records, encoded with {@link TAGDTOCodec}
+ * </pre>
+ *
+ * The file is written next to the target and then moved into place, so readers never see a
+ * partially written archive. An {@link ArchiveTAGStore} maps the whole file, so an archive can not
+ * be larger than {@link #MAX_ARCHIVE_SIZE}; writing a larger one fails before anything is written.
+ */
+public class TAGArchiveWriter {
+  static final int MAGIC = 0x54414741; // "TAGA"
+  static final int FORMAT_VERSION = 2;
+  static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+  static final int DOCUMENT_ENTRY_SIZE = 8 + 8 + 4;
+  static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+  static final long MAX_ARCHIVE_SIZE = Integer.MAX_VALUE;
+
+  private final TAGStore store;
+
+  public TAGArchiveWriter(TAGStore store) {
+    this.store = store;
+  }
+
+  public void write(Path file, Long... documentIds) throws IOException {
+    Map<Long, TAGDTO> records = new TreeMap<>();
+    Map<Long, long[]> textOrders = new LinkedHashMap<>();
+    store.runInTransaction(
+        () -> {
+          for (Long documentId : documentIds) {
+            collectDocument(documentId, records, textOrders);
+          }
+        });
+
+    long textOrderOffset = HEADER_SIZE + (long) DOCUMENT_ENTRY_SIZE * textOrders.size();
+    long indexOffset = textOrderOffset;
+    for (long[] textOrder : textOrders.values()) {
+      indexOffset += 8L * textOrder.length;
+    }
+    long dataOffset = indexOffset + (long) INDEX_ENTRY_SIZE * records.size();
+
+    // the offsets are counted in a long: the int size of a stream would overflow near the limit
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    ByteArrayOutputStream recordData = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(recordData);
+    long dataSize = 0;
+    long[] recordOffsets = new long[records.size()];
+    int[] recordLengths = new int[records.size()];
+    int r = 0;
+    for (TAGDTO record : records.values()) {
+      recordData.reset();
+      TAGDTOCodec.write(record, recordOut);
+      recordOut.flush();
+      if (dataOffset + dataSize + recordData.size() > MAX_ARCHIVE_SIZE) {
+        throw new IOException(
+            "the archive of documents "
+                + Arrays.toString(documentIds)
+                + " would be larger than "
+                + MAX_ARCHIVE_SIZE
+                + " bytes");
+      }
+      recordOffsets[r] = dataSize;
+      recordLengths[r] = recordData.size();
+      recordData.writeTo(data);
+      dataSize += recordData.size();
+      r++;
+    }
+
+    Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), "archive", ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(records.size());
+      out.writeInt(textOrders.size());
+      out.writeLong(indexOffset);
+      out.writeLong(dataOffset);
+
+      long offset = textOrderOffset;
+      for (Map.Entry<Long, long[]> entry : textOrders.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeLong(offset);
+        out.writeInt(entry.getValue().length);
+        offset += 8L * entry.getValue().length;
+      }
+      for (long[] textOrder : textOrders.values()) {
+        for (long textNodeId : textOrder) {
+          out.writeLong(textNodeId);
+        }
+      }
+
+      r = 0;
+      for (Long id : records.keySet()) {
+        out.writeLong(id);
+        out.writeLong(dataOffset + recordOffsets[r]);
+        out.writeInt(recordLengths[r]);
+        r++;
+      }
+
+      data.writeTo(out);
+    }
+    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void collectDocument(
+      Long documentId, Map<Long, TAGDTO> records, Map<Long, long[]> textOrders) {
+    if (records.containsKey(documentId)) {
+      return;
+    }
+    TAGDocumentDTO document = store.getDocumentDTO(documentId);
+    checkNotNull(document, "no document with id %s", documentId);
+    records.put(documentId, document);
+    TextGraph textGraph = document.getTextGraph();
+    textOrders.put(documentId, textGraph.getTextNodeIdsInTextOrder().toArray());
+
+    for (Long textNodeId : document.getTextNodeIds()) {
+      putIfFound(records, textNodeId, store.getTextNodeDTO(textNodeId));
+    }
+    Set<Long> markupIds = new LinkedHashSet<>(document.getMarkupIds());
+    markupIds.addAll(textGraph.getLayerRootMap().values());
+    for (Long markupId : markupIds) {
+      putIfFound(records, markupId, store.getMarkupDTO(markupId));
+      collectAnnotationValues(markupId, textGraph, records, textOrders);
+    }
+  }
+
+  private void collectAnnotationValues(
+      Long nodeId, TextGraph textGraph, Map<Long, TAGDTO> records, Map<Long, long[]> textOrders) {
+    for (Edge edge : textGraph.getOutgoingEdges(nodeId)) {
+      AnnotationType type;
+      if (edge instanceof AnnotationEdge) {
+        type = ((AnnotationEdge) edge).getAnnotationType();
+      } else if (edge instanceof ListItemEdge) {
+        type = ((ListItemEdge) edge).getAnnotationType();
+      } else {
+        continue;
+      }
+      for (Long valueId : textGraph.getTargets(edge)) {
+        collectAnnotationValue(valueId, type, textGraph, records, textOrders);
+      }
+    }
+  }
+
+  private void collectAnnotationValue(
+      Long valueId,
+      AnnotationType type,
+      TextGraph textGraph,
+      Map<Long, TAGDTO> records,
+      Map<Long, long[]> textOrders) {
+    switch (type) {
+      case String:
+        putIfFound(records, valueId, store.getStringAnnotationValue(valueId));
+        break;
+      case Number:
+        putIfFound(records, valueId, store.getNumberAnnotationValue(valueId));
+        break;
+      case Boolean:
+        putIfFound(records, valueId, store.getBooleanAnnotationValue(valueId));
+        break;
+      case Reference:
+        putIfFound(records, valueId, store.getReferenceValue(valueId));
+        break;
+      case List:
+      case Map:
+        // the value node only holds edges to its items
+        collectAnnotationValues(valueId, textGraph, records, textOrders);
+        break;
+      case RichText:
+        if (store.getDocumentDTO(valueId) != null) {
+          collectDocument(valueId, records, textOrders);
+        }
+        break;
+    }
+  }
+
+  private static void putIfFound(Map<Long, TAGDTO> records, Long id, TAGDTO dto) {
+    if (dto != null) {
+      records.put(id, dto);
+    }
+  }
+}
@@ -51,6 +51,10 @@ public class TAGAnnotationDTO implements TAGDTO {
     this.id = id;
   }
 
+  public void setDbId(Long dbId) {
+    this.id = dbId;
+  }
+
   public Long getDbId() {
     return id;
   }
@@ -22,4 +22,7 @@ package nl.knaw.huygens.alexandria.storage.dto;
 
 public interface TAGDTO {
   Long getDbId();
+
+  /** Used by stores that assign their own ids; the BDB store gets them from its sequence. */
+  void setDbId(Long dbId);
 }
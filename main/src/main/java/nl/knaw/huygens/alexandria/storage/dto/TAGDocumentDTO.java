@@ -21,27 +21,33 @@ package nl.knaw.huygens.alexandria.storage.dto;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import com.sleepycat.persist.model.Entity;
 import com.sleepycat.persist.model.PrimaryKey;
 import com.sleepycat.persist.model.SecondaryKey;
 
+import nl.knaw.huc.di.tag.model.graph.LegacyTextGraph;
 import nl.knaw.huc.di.tag.model.graph.TextGraph;
+import nl.knaw.huc.di.tag.model.graph.TextGraphCodec;
 import nl.knaw.huc.di.tag.tagml.TAGML;
 import nl.knaw.huc.di.tag.tagml.importer.RangePair;
 import nl.knaw.huygens.alexandria.storage.DataAccessor;
 import nl.knaw.huygens.alexandria.storage.TAGMarkup;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.sleepycat.persist.model.Relationship.ONE_TO_MANY;
 
-@Entity(version = 5)
+@Entity(version = 8)
 public class TAGDocumentDTO implements TAGDTO {
   @PrimaryKey(sequence = DataAccessor.SEQUENCE)
   private Long id;
@@ -54,7 +60,14 @@ public class TAGDocumentDTO implements TAGDTO {
 
   private Date creationDate = new Date();
   private Date modificationDate = new Date();
-  public TextGraph textGraph = new TextGraph();
+  // only to be used through getTextGraph(), which reads the text graph when it was not read yet
+  private transient LazyTextGraph lazyTextGraph = new LazyTextGraph();
+  // the text graph of records of versions 6 and 7, until they are written again
+  private byte[] textGraphData;
+  // the text graph of records up to version 5, until they are written again
+  private LegacyTextGraph legacyTextGraph;
+  // the layer names of the text graph, so they can be listed without reading it
+  private List<String> layerNames;
   private Map<String, String> namespaces;
   private String schemaLocation;
   private Map<Long, RangePair> markupRangeMap = new HashMap<>();
@@ -66,13 +79,74 @@ public class TAGDocumentDTO implements TAGDTO {
       throw new RuntimeException(
           "TAGDocumentDTO needs to be persisted before it can be initialized.");
     }
-    textGraph.setDocumentRoot(id);
+    getTextGraphForUpdate().setDocumentRoot(id);
+  }
+
+  /** The text graph of this document, which is read when it is first asked for. */
+  public TextGraph getTextGraph() {
+    return lazyTextGraph.get();
+  }
+
+  /**
+   * The text graph of this document, to be changed. A frozen text graph may be shared with other
+   * readers, so it is first replaced by a copy that can be changed.
+   */
+  public TextGraph getTextGraphForUpdate() {
+    return lazyTextGraph.getForUpdate();
+  }
+
+  public void setTextGraph(final TextGraph textGraph) {
+    lazyTextGraph.set(checkNotNull(textGraph));
+  }
+
+  /** Read the text graph only when it is asked for, to be called after this dto is read. */
+  public void setTextGraphLoader(final Supplier<TextGraph> textGraphLoader) {
+    lazyTextGraph.setLoader(checkNotNull(textGraphLoader));
+  }
+
+  public boolean isTextGraphLoaded() {
+    return lazyTextGraph.ifLoaded() != null;
+  }
+
+  /**
+   * Encode the text graph, to be called before this dto is written. Returns null when the text graph
+   * was not read, and so has not changed.
+   */
+  public synchronized byte[] encodeTextGraph() {
+    TextGraph textGraph = lazyTextGraph.ifLoaded();
+    if (textGraph == null) {
+      return null;
+    }
+    textGraphData = null;
+    legacyTextGraph = null;
+    layerNames = new ArrayList<>(textGraph.getLayerNames());
+    return TextGraphCodec.encode(textGraph);
+  }
+
+  /** The text graph as stored in this record by versions up to 7, or null. */
+  public synchronized TextGraph decodeInlineTextGraph() {
+    if (legacyTextGraph != null) {
+      return legacyTextGraph.toTextGraph();
+    }
+    return textGraphData == null ? null : TextGraphCodec.decode(textGraphData);
+  }
+
+  /** The layer names, taken from the record when the text graph has not been read. */
+  public synchronized Set<String> getLayerNames() {
+    if (layerNames != null && !isTextGraphLoaded()) {
+      return Collections.unmodifiableSet(new LinkedHashSet<>(layerNames));
+    }
+    return getTextGraph().getLayerNames();
   }
 
   public Long getDbId() {
     return id;
   }
 
+  public void setDbId(Long dbId) {
+    this.id = dbId;
+  }
+
   public void setTextNodeIds(List<Long> textNodeIds) {
     this.textNodeIds = textNodeIds;
   }
@@ -114,15 +188,15 @@ public class TAGDocumentDTO implements TAGDTO {
   }
 
   public void setFirstTextNodeId(final Long firstTextNodeId) {
-    textGraph.setFirstTextNodeId(firstTextNodeId);
+    getTextGraphForUpdate().setFirstTextNodeId(firstTextNodeId);
   }
 
   public Long getFirstTextNodeId() {
-    return textGraph.getFirstTextNodeId();
+    return getTextGraph().getFirstTextNodeId();
   }
 
   public Set<Long> getLayerRootNodeIds() {
-    return new HashSet<>(textGraph.getLayerRootMap().values());
+    return new HashSet<>(getTextGraph().getLayerRootMap().values());
   }
 
   public boolean containsAtLeastHalfOfAllTextNodes(TAGMarkupDTO markup) {
@@ -136,11 +210,11 @@ public class TAGDocumentDTO implements TAGDTO {
 
   private Stream<Long> getTextNodeIdStreamForMarkupIdInLayers(
       final Long markupId, final Set<String> layers) {
-    return textGraph.getTextNodeIdStreamForMarkupIdInLayers(markupId, layers);
+    return getTextGraph().getTextNodeIdStreamForMarkupIdInLayers(markupId, layers);
   }
 
   public Stream<Long> getMarkupIdsForTextNodeId(Long textNodeId) {
-    return textGraph.getMarkupIdStreamForTextNodeId(textNodeId);
+    return getTextGraph().getMarkupIdStreamForTextNodeId(textNodeId);
   }
 
   public void addTextNode(TAGTextNodeDTO textNode) {
@@ -149,7 +223,8 @@ public class TAGDocumentDTO implements TAGDTO {
 
   public void associateTextWithMarkupForLayer(
       TAGTextNodeDTO textNode, TAGMarkupDTO markup, final String layerName) {
-    textGraph.linkMarkupToTextNodeForLayer(markup.getDbId(), textNode.getDbId(), layerName);
+    getTextGraphForUpdate()
+        .linkMarkupToTextNodeForLayer(markup.getDbId(), textNode.getDbId(), layerName);
   }
 
   public boolean markupHasTextNodes(final TAGMarkup markup) {
@@ -181,4 +256,41 @@ public class TAGDocumentDTO implements TAGDTO {
   public void setMarkupRangeMap(Map<Long, RangePair> markupRangeMap) {
     this.markupRangeMap = markupRangeMap;
   }
+
+  /**
+   * The text graph, or the loader that reads it when it is first asked for. Kept apart from the
+   * other fields so that the text graph can only be reached through {@link #get()}.
+   */
+  private static class LazyTextGraph {
+    private TextGraph textGraph = new TextGraph();
+    private Supplier<TextGraph> loader;
+
+    synchronized TextGraph get() {
+      if (textGraph == null) {
+        textGraph = loader.get();
+        loader = null;
+      }
+      return textGraph;
+    }
+
+    synchronized TextGraph getForUpdate() {
+      textGraph = get().unfrozen();
+      return textGraph;
+    }
+
+    synchronized void set(TextGraph textGraph) {
+      this.textGraph = textGraph;
+      loader = null;
+    }
+
+    synchronized void setLoader(Supplier<TextGraph> loader) {
+      this.loader = loader;
+      textGraph = null;
+    }
+
+    // the text graph when it was read or set, without reading it
+    synchronized TextGraph ifLoaded() {
+      return textGraph;
+    }
+  }
 }
@@ -66,6 +66,10 @@ public class TAGMarkupDTO implements TAGDTO {
     this.id = id;
   }
 
+  public void setDbId(Long dbId) {
+    this.id = dbId;
+  }
+
   public String getTag() {
     return tag;
   }
@@ -0,0 +1,70 @@
+package nl.knaw.huygens.alexandria.storage.dto;
+
+/*
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+import nl.knaw.huygens.alexandria.storage.DataAccessor;
+
+/**
+ * A run of text shared by consecutive text nodes, which refer to it by offset and length. It counts
+ * the text nodes that refer to it; chunks written before the count was kept have a count of 0.
+ */
+@Entity(version = 1)
+public class TAGTextChunkDTO implements TAGDTO {
+  @PrimaryKey(sequence = DataAccessor.SEQUENCE)
+  private Long id;
+
+  private String text = "";
+  private int referenceCount;
+
+  public TAGTextChunkDTO() {}
+
+  public Long getDbId() {
+    return id;
+  }
+
+  public void setDbId(Long dbId) {
+    this.id = dbId;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public TAGTextChunkDTO setText(String text) {
+    this.text = text;
+    return this;
+  }
+
+  public int getReferenceCount() {
+    return referenceCount;
+  }
+
+  public void incrementReferenceCount() {
+    referenceCount++;
+  }
+
+  public void decrementReferenceCount() {
+    referenceCount--;
+  }
+}
@@ -0,0 +1,51 @@
+package nl.knaw.huygens.alexandria.storage.dto;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+/**
+ * The text graph of a document, as written by {@link
+ * nl.knaw.huc.di.tag.model.graph.TextGraphCodec}. Kept apart from the {@link TAGDocumentDTO}, so
+ * reading a document does not read its graph.
+ */
+@Entity
+public class TAGTextGraphDTO {
+  @PrimaryKey private Long documentId;
+
+  private byte[] data;
+
+  public TAGTextGraphDTO() {}
+
+  public TAGTextGraphDTO(Long documentId, byte[] data) {
+    this.documentId = documentId;
+    this.data = data;
+  }
+
+  public Long getDocumentId() {
+    return documentId;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+}
@@ -25,13 +25,21 @@ import com.sleepycat.persist.model.PrimaryKey;
 
 import nl.knaw.huygens.alexandria.storage.DataAccessor;
 
-@Entity(version = 2)
+@Entity(version = 3)
 public class TAGTextNodeDTO implements TAGDTO {
   @PrimaryKey(sequence = DataAccessor.SEQUENCE)
   private Long dbId;
 
+  // inline text; null when the text is kept in a TAGTextChunkDTO
   private String text;
 
+  private Long chunkId;
+  private int offset;
+  private int length;
+  private transient String chunkText;
+  // the chunk that held the text before it was changed, until the store has released it
+  private transient Long replacedChunkId;
+
   public TAGTextNodeDTO(String text) {
     this.text = text;
   }
@@ -44,12 +52,62 @@ public class TAGTextNodeDTO implements TAGDTO {
     return dbId;
   }
 
+  public void setDbId(Long dbId) {
+    this.dbId = dbId;
+  }
+
   public TAGTextNodeDTO setText(String text) {
+    if (chunkId != null) {
+      replacedChunkId = chunkId;
+    }
     this.text = text;
+    this.chunkId = null;
+    this.chunkText = null;
     return this;
   }
 
   public String getText() {
-    return text;
+    return text != null ? text : chunkText;
+  }
+
+  public boolean hasInlineText() {
+    return text != null;
+  }
+
+  /** Move the text to the given range of a chunk. */
+  public void moveTextToChunk(Long chunkId, int offset) {
+    this.chunkText = text;
+    this.chunkId = chunkId;
+    this.offset = offset;
+    this.length = text.length();
+    this.text = null;
+  }
+
+  public Long getChunkId() {
+    return chunkId;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /** Set the text read from the chunk this text node refers to. */
+  public void resolveChunkText(String chunkText) {
+    this.chunkText = chunkText;
+  }
+
+  /** The chunk that held the text before it was changed, once; null when there is none. */
+  public Long takeReplacedChunkId() {
+    Long id = replacedChunkId;
+    replacedChunkId = null;
+    return id;
+  }
+
+  public boolean needsChunkText() {
+    return text == null && chunkText == null && chunkId != null;
   }
 }
@@ -22,6 +22,7 @@ package nl.knaw.huc.di.tag.tagml.importer
 
 import nl.knaw.huc.di.tag.model.graph.TextGraph
 import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge
+import nl.knaw.huc.di.tag.model.graph.edges.EdgeType
 import nl.knaw.huc.di.tag.model.graph.edges.ListItemEdge
 import nl.knaw.huc.di.tag.tagml.grammar.TAGMLParser.*
 import nl.knaw.huygens.alexandria.ErrorListener
@@ -284,7 +285,7 @@ class AnnotationFactory @JvmOverloads constructor(
 
     fun getListValue(annotationInfo: AnnotationInfo): List<AnnotationInfo> {
         val nodeId = annotationInfo.nodeId
-        return textGraph.getOutgoingEdges(nodeId)
+        return textGraph.getOutgoingEdges(nodeId, EdgeType.hasItem)
             .asSequence()
             .filterIsInstance<ListItemEdge>()
             .map { toAnnotationInfo(it) }
@@ -293,7 +294,7 @@ class AnnotationFactory @JvmOverloads constructor(
 
     fun getMapValue(annotationInfo: AnnotationInfo): List<AnnotationInfo> {
         val nodeId = annotationInfo.nodeId
-        return textGraph.getOutgoingEdges(nodeId)
+        return textGraph.getOutgoingEdges(nodeId, EdgeType.hasAnnotation)
             .asSequence()
             .filterIsInstance<AnnotationEdge>()
             .map { toAnnotationInfo(it) }
@@ -82,6 +82,8 @@ class TAGMLImporter(private val tagStore: TAGStore) {
             }
             throw TAGMLSyntaxError(errorMsg, errorListener.errors)
         }
+        // the graph is complete: freeze it, so it is stored and read as a frozen graph
+        document.dto.textGraph.freeze()
         update(document.dto)
         return document
     }
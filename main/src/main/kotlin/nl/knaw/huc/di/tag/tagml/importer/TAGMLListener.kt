@@ -631,7 +631,7 @@ class TAGMLListener(private val store: TAGStore, errorListener: ErrorListener) :
             is BasicAnnotationContext -> {
                 val aInfo = annotationFactory.makeAnnotation(actx)
                 val markupNode = markup.dbId
-                document.dto.textGraph.addAnnotationEdge(markupNode, aInfo)
+                document.dto.textGraphForUpdate.addAnnotationEdge(markupNode, aInfo)
             }
             is IdentifyingAnnotationContext -> {
                 markup.markupId = actx.idValue().text
@@ -641,7 +641,7 @@ class TAGMLListener(private val store: TAGStore, errorListener: ErrorListener) :
                 val refId = actx.refValue().text
                 val annotationInfo = annotationFactory.makeReferenceAnnotation(aName, refId)
                 val markupNode = markup.dbId
-                document.dto.textGraph.addAnnotationEdge(markupNode, annotationInfo)
+                document.dto.textGraphForUpdate.addAnnotationEdge(markupNode, annotationInfo)
             }
         }
     }
@@ -768,7 +768,7 @@ class TAGMLListener(private val store: TAGStore, errorListener: ErrorListener) :
             checkForTextBetweenSuspendAndResumeTags(suspendedMarkup!!, ctx)
             suspendedMarkup.setIsDiscontinuous(true)
         }
-        val textGraph = document.dto.textGraph
+        val textGraph = document.dto.textGraphForUpdate
         val resumedMarkup = store.createMarkup(document, suspendedMarkup!!.tag)
             .addAllLayers(layers)
         document.addMarkup(resumedMarkup)
@@ -896,6 +896,6 @@ class TAGMLListener(private val store: TAGStore, errorListener: ErrorListener) :
     init {
         document = store.createDocument()
         textVariationStateStack.push(TextVariationState())
-        annotationFactory = AnnotationFactory(store, document.dto.textGraph, errorListener)
+        annotationFactory = AnnotationFactory(store, document.dto.textGraphForUpdate, errorListener)
     }
 }
@@ -33,27 +33,30 @@ import org.junit.jupiter.api.BeforeAll;
 import nl.knaw.huc.di.tag.model.graph.DotFactory;
 import nl.knaw.huc.di.tag.tagml.TAGMLBaseTest;
 import nl.knaw.huygens.alexandria.lmnl.exporter.LMNLExporter;
-import nl.knaw.huygens.alexandria.storage.BDBTAGStore;
 import nl.knaw.huygens.alexandria.storage.TAGDocument;
 import nl.knaw.huygens.alexandria.storage.TAGStore;
+import nl.knaw.huygens.alexandria.storage.TestTAGStores;
 
 public class TAGBaseStoreTest extends TAGMLBaseTest {
 
   private static Path tmpDir;
+  private static TestTAGStores stores;
   DotFactory dotFactory = new DotFactory();
 
   @BeforeAll
   public static void beforeClass() throws IOException {
     tmpDir = mkTmpDir();
+    stores = new TestTAGStores(tmpDir);
   }
 
   @AfterAll
   public static void afterClass() throws IOException {
+    stores = null;
     rmTmpDir(tmpDir);
   }
 
   private TAGStore getStore() {
-    return new BDBTAGStore(tmpDir.toString(), false);
+    return stores.open();
   }
 
   public LMNLExporter getLmnlExporter(TAGStore store) {
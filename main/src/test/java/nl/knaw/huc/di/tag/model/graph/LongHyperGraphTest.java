@@ -0,0 +1,139 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.jupiter.api.Test;
+
+import static nl.knaw.huygens.alexandria.AlexandriaAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LongHyperGraphTest {
+
+  @Test
+  public void testEdgesKeepTheirOrder() {
+    LongHyperGraph<String> hg = new LongHyperGraph<>();
+    for (int i = 0; i < 100; i++) {
+      hg.addDirectedHyperEdge("edge" + i, "label", 1L, 2L + i);
+    }
+
+    assertThat(hg.getOutgoingEdges(1L))
+        .hasSize(100)
+        .startsWith("edge0", "edge1")
+        .endsWith("edge99");
+    assertThat(hg.getIncomingEdges(51L)).containsExactly("edge49");
+    assertThat(hg.getSource("edge49")).isEqualTo(1L);
+    assertThat(hg.getTargets("edge49")).containsExactly(51L);
+    assertThat(hg.getOutgoingEdges(2L)).isEmpty();
+    assertThat(hg.getOutgoingEdges(null)).isEmpty();
+    assertThat(hg.getSource("unknown")).isNull();
+  }
+
+  @Test
+  public void testRemoveTargetsFromHyperEdge() {
+    LongHyperGraph<String> hg = new LongHyperGraph<>();
+
+    String dogs = "branch1";
+    long dog = 1L;
+    long poodle = 2L;
+    long labrador = 3L;
+    String mammals = "branch2";
+    long mammal = 4L;
+    hg.addDirectedHyperEdge(mammals, "contains", mammal, dog);
+    hg.addDirectedHyperEdge(dogs, "contains", dog, poodle, labrador);
+
+    long husky = 5L;
+    hg.addTargetsToHyperEdge(dogs, husky);
+
+    assertThat(hg.getOutgoingEdges(dog)).containsExactly(dogs);
+    assertThat(hg.getTargets(dogs)).containsExactly(poodle, labrador, husky);
+    assertThat(hg.getIncomingEdges(husky)).containsExactly(dogs);
+
+    hg.removeTargetsFromHyperEdge(dogs, poodle, labrador);
+    assertThat(hg.getTargets(dogs)).containsExactly(husky);
+    assertThat(hg.getIncomingEdges(poodle)).isEmpty();
+
+    hg.removeTargetsFromHyperEdge(dogs, husky);
+    assertThat(hg.getOutgoingEdges(dog)).isEmpty();
+    assertThat(hg.getTargets(dogs)).isNull();
+    assertThat(hg.getOutgoingEdges(mammal)).containsExactly(mammals);
+  }
+
+  @Test
+  public void testTargetsAddedOneAtATime() {
+    LongHyperGraph<String> hg = new LongHyperGraph<>();
+    hg.addDirectedHyperEdge("edge", "label", 1L, 2L);
+    for (long target = 3L; target < 1_000L; target++) {
+      hg.addTargetsToHyperEdge("edge", target);
+    }
+    hg.removeTargetsFromHyperEdge("edge", 500L);
+
+    assertThat(hg.getTargets("edge")).hasSize(997).startsWith(2L, 3L).endsWith(998L, 999L);
+    assertThat(hg.getIncomingEdges(999L)).containsExactly("edge");
+
+    hg.freeze();
+    assertThat(hg.getTargets("edge")).hasSize(997).doesNotContain(500L).endsWith(999L);
+  }
+
+  @Test
+  public void testEdgesByLabel() {
+    LongHyperGraph<String> hg = new LongHyperGraph<>();
+    String[] edges = new String[30];
+    for (int i = 0; i < edges.length; i++) {
+      edges[i] = "edge" + i;
+      hg.addDirectedHyperEdge(edges[i], i % 3 == 0 ? "a" : "b", 1L, 2L + i);
+    }
+    hg.addDirectedHyperEdge("back", "a", 5L, 1L);
+
+    assertThat(hg.getOutgoingEdges(1L, "a")).hasSize(10).startsWith("edge0", "edge3");
+    assertThat(hg.getOutgoingEdges(1L, "b")).hasSize(20).startsWith("edge1", "edge2");
+    assertThat(hg.getOutgoingEdges(1L, "c")).isEmpty();
+    assertThat(hg.getIncomingEdges(1L, "a")).containsExactly("back");
+    assertThat(hg.getIncomingEdges(5L, new String("a"))).containsExactly("edge3");
+    assertThat(hg.getIncomingEdges(5L, "b")).isEmpty();
+
+    hg.removeTargetsFromHyperEdge(edges[3], 5L);
+    assertThat(hg.getOutgoingEdges(1L, "a")).hasSize(9).startsWith("edge0", "edge6");
+    assertThat(hg.getIncomingEdges(5L, "a")).isEmpty();
+    assertThat(hg.getOutgoingEdges(1L)).hasSize(29);
+  }
+
+  @Test
+  public void testFrozenGraph() {
+    LongHyperGraph<String> hg = new LongHyperGraph<>();
+    String[] edges = new String[30];
+    for (int i = 0; i < edges.length; i++) {
+      edges[i] = "edge" + i;
+      hg.addDirectedHyperEdge(edges[i], i % 3 == 0 ? "a" : "b", 1L + i % 2, 3L + i, 4L + i);
+    }
+    hg.removeTargetsFromHyperEdge(edges[4], 7L, 8L);
+    hg.freeze();
+
+    assertThat(hg.isFrozen()).isTrue();
+    assertThat(hg.getOutgoingEdges(1L)).hasSize(14).startsWith("edge0", "edge2");
+    assertThat(hg.getOutgoingEdges(2L, "a")).hasSize(5).startsWith("edge3", "edge9");
+    assertThat(hg.getIncomingEdges(8L)).containsExactly("edge5");
+    assertThat(hg.getTargets(edges[5])).containsExactly(8L, 9L);
+    assertThat(hg.getTargets(edges[4])).isNull();
+    assertThat(hg.getOutgoingEdges(99L)).isEmpty();
+    assertThatThrownBy(() -> hg.addDirectedHyperEdge("edge30", "a", 1L, 2L))
+        .isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,92 @@
+package nl.knaw.huc.di.tag.model.graph;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import nl.knaw.huc.di.tag.model.graph.edges.AnnotationEdge;
+import nl.knaw.huc.di.tag.model.graph.edges.Edge;
+import nl.knaw.huc.di.tag.tagml.importer.AnnotationInfo;
+import nl.knaw.huygens.alexandria.storage.AnnotationType;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TextGraphCodecTest {
+
+  AtomicLong nodeIds = new AtomicLong(1000);
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    // [l>He said: [phr>[q|+q>Too much!<phr]<q|q]<l]
+    TextGraph tg = new TextGraph();
+    tg.documentNode = newNode();
+    Long markupL = newNode();
+    tg.setLayerRootMarkup("", markupL);
+    Long textHeSaid = newNode();
+    tg.setFirstTextNodeId(textHeSaid).linkMarkupToTextNodeForLayer(markupL, textHeSaid, "");
+    Long markupPhr = newNode();
+    tg.addChildMarkup(markupL, "", markupPhr);
+    Long markupQ = newNode();
+    tg.setLayerRootMarkup("q", markupQ);
+    Long textTooMuch = newNode();
+    tg.linkMarkupToTextNodeForLayer(markupPhr, textTooMuch, "")
+        .linkMarkupToTextNodeForLayer(markupQ, textTooMuch, "q");
+    Long value = newNode();
+    tg.addAnnotationEdge(markupPhr, new AnnotationInfo(value, AnnotationType.String, "lang"));
+    tg.linkParentlessLayerRootsToDocument();
+
+    TextGraph copy = roundTrip(tg);
+
+    assertThat(copy.getTextNodeIdStream().collect(toList()))
+        .containsExactly(textHeSaid, textTooMuch);
+    assertThat(copy.getLayerNames()).containsOnly("", "q");
+    assertThat(copy.getTextNodeIdStreamForLayer("q").collect(toList()))
+        .containsExactly(textTooMuch);
+    assertThat(copy.getMarkupIdStreamForTextNodeId(textTooMuch).collect(toList()))
+        .containsExactlyInAnyOrderElementsOf(
+            tg.getMarkupIdStreamForTextNodeId(textTooMuch).collect(toList()));
+    assertThat(copy.getOutgoingEdges(markupPhr))
+        .filteredOn(AnnotationEdge.class::isInstance)
+        .extracting(e -> ((AnnotationEdge) e).getField())
+        .containsExactly("lang");
+    Edge firstEdge = tg.getOutgoingEdges(markupPhr).iterator().next();
+    Edge firstEdgeCopy = copy.getOutgoingEdges(markupPhr).iterator().next();
+    assertThat(copy.getTargets(firstEdgeCopy)).containsExactlyElementsOf(tg.getTargets(firstEdge));
+  }
+
+  private static TextGraph roundTrip(TextGraph textGraph) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TextGraphCodec.write(textGraph, new DataOutputStream(bytes));
+    return TextGraphCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  private Long newNode() {
+    return nodeIds.getAndIncrement();
+  }
+}
@@ -20,6 +20,7 @@ package nl.knaw.huc.di.tag.model.graph;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -28,6 +29,7 @@ import org.junit.jupiter.api.Test;
 
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class TextGraphTest {
 
@@ -212,6 +214,190 @@ public class TextGraphTest {
     assertThat(textForPhr1).containsExactly(textSheSaid, textTooMuch);
   }
 
+  @Test
+  public void testConsecutiveTextNodesShareOneHyperEdge() {
+    // [l>one two [b>three<b] four five<l]
+    TextGraph tg = new TextGraph();
+    tg.documentNode = newNode();
+    String layerDefault = "";
+    Long markupL = newNode();
+    tg.setLayerRootMarkup(layerDefault, markupL);
+
+    Long textOne = newNode();
+    Long textTwo = newNode();
+    tg.setFirstTextNodeId(textOne)
+        .linkMarkupToTextNodeForLayer(markupL, textOne, layerDefault)
+        .linkMarkupToTextNodeForLayer(markupL, textTwo, layerDefault);
+
+    Long markupB = newNode();
+    Long textThree = newNode();
+    tg.addChildMarkup(markupL, layerDefault, markupB)
+        .linkMarkupToTextNodeForLayer(markupB, textThree, layerDefault);
+
+    Long textFour = newNode();
+    Long textFive = newNode();
+    tg.linkMarkupToTextNodeForLayer(markupL, textFour, layerDefault)
+        .linkMarkupToTextNodeForLayer(markupL, textFive, layerDefault);
+    tg.linkParentlessLayerRootsToDocument();
+
+    assertThat(tg.getOutgoingEdges(markupL)).hasSize(3);
+    assertThat(tg.getTextNodeIdStreamForMarkupIdInLayer(markupL, layerDefault).collect(toList()))
+        .containsExactly(textOne, textTwo, textThree, textFour, textFive);
+
+    tg.unlinkMarkupFromTextNodeForLayer(markupL, textFour, layerDefault);
+    assertThat(tg.getTextNodeIdStreamForMarkupIdInLayer(markupL, layerDefault).collect(toList()))
+        .containsExactly(textOne, textTwo, textThree, textFive);
+    assertThat(tg.getIncomingEdges(textFour)).isEmpty();
+  }
+
+  @Test
+  public void testTextOrderOfManyTextNodesInTwoLayers() {
+    // every text node is in both layers, so the walk of the second layer only meets handled nodes
+    TextGraph tg = new TextGraph();
+    tg.setDocumentRoot(newNode());
+    Long markupA = newNode();
+    Long markupB = newNode();
+    tg.setLayerRootMarkup("A", markupA).setLayerRootMarkup("B", markupB);
+    int textNodeCount = 100_000;
+    long[] textNodes = new long[textNodeCount];
+    for (int i = 0; i < textNodeCount; i++) {
+      Long textNode = newNode();
+      textNodes[i] = textNode;
+      tg.linkMarkupToTextNodeForLayer(markupA, textNode, "A");
+      // a child markup per text node in layer B, so B does not end up with one merged hyperedge
+      Long markupW = newNode();
+      tg.addChildMarkup(markupB, "B", markupW).linkMarkupToTextNodeForLayer(markupW, textNode, "B");
+    }
+    tg.linkParentlessLayerRootsToDocument();
+
+    assertThat(tg.getTextNodeIdsInTextOrder().toArray()).containsExactly(textNodes);
+
+    Long lastTextNode = newNode();
+    tg.linkMarkupToTextNodeForLayer(markupB, lastTextNode, "B");
+    assertThat(tg.getTextNodeIdsInTextOrder().count()).isEqualTo(textNodeCount + 1);
+    assertThat(tg.getTextNodeIdStream().reduce((first, second) -> second)).contains(lastTextNode);
+  }
+
+  @Test
+  public void testMarkupCoveringDiscontinuousText() {
+    // [l>one [q>two<-q] three [+q>four<q] five<l]
+    TextGraph tg = new TextGraph();
+    tg.setDocumentRoot(newNode());
+    String layerDefault = "";
+    Long markupL = newNode();
+    tg.setLayerRootMarkup(layerDefault, markupL);
+    Long markupQ = newNode();
+    Long[] text = {newNode(), newNode(), newNode(), newNode(), newNode()};
+    tg.linkMarkupToTextNodeForLayer(markupL, text[0], layerDefault)
+        .addChildMarkup(markupL, layerDefault, markupQ)
+        .linkMarkupToTextNodeForLayer(markupQ, text[1], layerDefault)
+        .linkMarkupToTextNodeForLayer(markupL, text[2], layerDefault)
+        .linkMarkupToTextNodeForLayer(markupQ, text[3], layerDefault)
+        .linkMarkupToTextNodeForLayer(markupL, text[4], layerDefault);
+    tg.linkParentlessLayerRootsToDocument();
+
+    assertThat(tg.getMarkupIdStreamForTextNodeId(text[1]).collect(toList()))
+        .containsExactly(markupL, markupQ);
+    assertThat(tg.getMarkupIdStreamForTextNodeId(text[2]).collect(toList()))
+        .containsExactly(markupL);
+    assertThat(tg.getMarkupIdStreamForTextNodeId(text[3]).collect(toList()))
+        .containsExactly(markupL, markupQ);
+    TextGraph copy = TextGraphCodec.decode(TextGraphCodec.encode(tg));
+    for (Long textNode : text) {
+      assertThat(copy.getMarkupIdStreamForTextNodeId(textNode).collect(toList()))
+          .containsExactlyElementsOf(
+              tg.walkMarkupIdStreamForTextNodeId(textNode).collect(toList()));
+    }
+  }
+
+  @Test
+  public void testTextOfDiscontinuousMarkup() {
+    // [l>[q>a<-q] b [+q>c<-q] d ... [+q>y<q]<l]
+    TextGraph tg = new TextGraph();
+    tg.setDocumentRoot(newNode());
+    String layerDefault = "";
+    Long markupL = newNode();
+    tg.setLayerRootMarkup(layerDefault, markupL);
+    List<Long> parts = new ArrayList<>();
+    List<Long> quoted = new ArrayList<>();
+    for (int i = 0; i < 13; i++) {
+      Long part = newNode();
+      Long textNode = newNode();
+      tg.addChildMarkup(markupL, layerDefault, part)
+          .linkMarkupToTextNodeForLayer(part, textNode, layerDefault)
+          .linkMarkupToTextNodeForLayer(markupL, newNode(), layerDefault);
+      if (!parts.isEmpty()) {
+        tg.continueMarkup(parts.get(parts.size() - 1), part);
+      }
+      parts.add(part);
+      quoted.add(textNode);
+    }
+    tg.linkParentlessLayerRootsToDocument();
+
+    for (Long part : parts) {
+      assertThat(tg.getContinuationGroupId(part)).isEqualTo(parts.get(0));
+      assertThat(tg.getContinuationGroupMarkupIds(part).boxed().collect(toList()))
+          .containsExactlyElementsOf(parts);
+      assertThat(tg.getTextNodeIdStreamForMarkupIdInLayer(part, layerDefault).collect(toList()))
+          .containsExactlyElementsOf(quoted);
+    }
+    assertThat(tg.getContinuationGroupId(markupL)).isEqualTo(markupL);
+
+    TextGraph copy = TextGraphCodec.decode(TextGraphCodec.encode(tg));
+    assertThat(copy.getContinuationGroupMarkupIds(parts.get(6)).boxed().collect(toList()))
+        .containsExactlyElementsOf(parts);
+  }
+
+  @Test
+  public void testFrozenGraphAnswersLikeTheGraphItWasMadeFrom() {
+    TextGraph tg = new TextGraph();
+    tg.setDocumentRoot(newNode());
+    String layerDefault = "";
+    Long markupL = newNode();
+    tg.setLayerRootMarkup(layerDefault, markupL);
+    Long markupQ = newNode();
+    Long markupQ2 = newNode();
+    Long[] text = {newNode(), newNode(), newNode(), newNode()};
+    tg.linkMarkupToTextNodeForLayer(markupL, text[0], layerDefault)
+        .addChildMarkup(markupL, layerDefault, markupQ)
+        .linkMarkupToTextNodeForLayer(markupQ, text[1], layerDefault)
+        .linkMarkupToTextNodeForLayer(markupL, text[2], layerDefault)
+        .addChildMarkup(markupL, layerDefault, markupQ2)
+        .linkMarkupToTextNodeForLayer(markupQ2, text[3], layerDefault)
+        .continueMarkup(markupQ, markupQ2);
+    tg.linkParentlessLayerRootsToDocument();
+
+    TextGraph frozen = TextGraphCodec.decode(TextGraphCodec.encode(tg));
+    frozen.freeze();
+    assertThat(frozen.isFrozen()).isTrue();
+    assertThat(frozen.getTextNodeIdStream().collect(toList()))
+        .containsExactlyElementsOf(tg.getTextNodeIdStream().collect(toList()));
+    for (Long textNode : text) {
+      assertThat(frozen.getMarkupIdStreamForTextNodeId(textNode).collect(toList()))
+          .containsExactlyElementsOf(tg.getMarkupIdStreamForTextNodeId(textNode).collect(toList()));
+    }
+    List<Long> quoted =
+        frozen.getTextNodeIdStreamForMarkupIdInLayer(markupQ, layerDefault).collect(toList());
+    assertThat(quoted).containsExactly(text[1], text[3]);
+    assertThat(frozen.getContinuedMarkupId(markupQ)).contains(markupQ2);
+    assertThatThrownBy(() -> frozen.linkMarkupToTextNodeForLayer(markupL, newNode(), layerDefault))
+        .isInstanceOf(IllegalStateException.class);
+
+    TextGraph copy = TextGraphCodec.decode(TextGraphCodec.encode(frozen));
+    assertThat(copy.isFrozen()).isTrue();
+    assertThat(copy.getTextNodeIdStream().collect(toList()))
+        .containsExactlyElementsOf(tg.getTextNodeIdStream().collect(toList()));
+
+    TextGraph unfrozen = frozen.unfrozen();
+    assertThat(unfrozen).isNotSameAs(frozen);
+    assertThat(unfrozen.isFrozen()).isFalse();
+    Long newText = newNode();
+    unfrozen.linkMarkupToTextNodeForLayer(markupL, newText, layerDefault);
+    assertThat(unfrozen.getTextNodeIdStream().collect(toList())).contains(newText);
+    assertThat(frozen.getTextNodeIdStream().collect(toList())).doesNotContain(newText);
+    assertThat(tg.unfrozen()).isSameAs(tg);
+  }
+
   private Long newNode() {
     return nodeIds.getAndIncrement();
   }
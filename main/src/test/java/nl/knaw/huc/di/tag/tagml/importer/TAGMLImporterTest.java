@@ -480,7 +480,7 @@ public class TAGMLImporterTest extends TAGBaseStoreTest {
           List<String> textSegments =
               document
                   .getDTO()
-                  .textGraph
+                  .getTextGraph()
                   .getTextNodeIdStream()
                   .map(store::getTextNodeDTO)
                   .map(TAGTextNodeDTO::getText)
@@ -172,7 +172,7 @@ public class TAGMLListenerTest extends TAGBaseStoreTest {
           TAGDocument document = assertTAGMLParses(input, store);
           logDocumentGraph(document, input);
 
-          TextGraph textGraph = document.getDTO().textGraph;
+          TextGraph textGraph = document.getDTO().getTextGraph();
 
           List<TAGTextNode> textNodes = document.getTextNodeStream().collect(toList());
           assertThat(textNodes).hasSize(5);
@@ -106,6 +106,18 @@ public class RDFFactoryTest extends TAGBaseStoreTest {
         tagml, "tag:value  \"Huey\"", "tag:value  \"Louie\"", "tag:value  \"Dewey\"");
   }
 
+  @Test
+  public void testAnnotationsWithTheSameValueAreDistinctResources() {
+    String tagml = "[line>[w type='noun'>cookie<w] and [w type='noun'>milk<w]<line]";
+    runInStore(
+        store -> {
+          TAGDocument document =
+              store.runInTransaction(() -> new TAGMLImporter(store).importTAGML(tagml));
+          Model model = store.runInTransaction(() -> RDFFactory.fromDocument(document));
+          assertThat(model.listObjectsOfProperty(TAG.annotation).toSet()).hasSize(2);
+        });
+  }
+
   @Test
   public void testMapAnnotation() {
     String tagml =
@@ -33,24 +33,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.knaw.huygens.alexandria.lmnl.AlexandriaLMNLBaseTest;
-import nl.knaw.huygens.alexandria.storage.BDBTAGStore;
 import nl.knaw.huygens.alexandria.storage.TAGStore;
+import nl.knaw.huygens.alexandria.storage.TestTAGStores;
 
 public class AlexandriaBaseStoreTest extends AlexandriaLMNLBaseTest {
 
   private static final Logger LOG = LoggerFactory.getLogger(AlexandriaBaseStoreTest.class);
   private static Path tmpDir;
+  private static TestTAGStores stores;
 
   @BeforeAll
   public static void beforeClass() throws IOException {
     //    LOG.info("System.getenv()={}", System.getenv().toString().replace(",", ",\n"));
     tmpDir = Files.createTempDirectory("tmpDir");
+    stores = new TestTAGStores(tmpDir);
     LOG.info("Created tempDirectory {}", tmpDir.toAbsolutePath());
     tmpDir.toFile().deleteOnExit();
   }
 
   @AfterAll
   public static void afterClass() {
+    stores = null;
     LOG.info("Deleting tempDirectory {}", tmpDir.toAbsolutePath());
     try {
       FileUtils.forceDelete(tmpDir.toFile());
@@ -78,6 +81,6 @@ public class AlexandriaBaseStoreTest extends AlexandriaLMNLBaseTest {
   }
 
   private TAGStore getStore() {
-    return new BDBTAGStore(tmpDir.toString(), false);
+    return stores.open();
   }
 }
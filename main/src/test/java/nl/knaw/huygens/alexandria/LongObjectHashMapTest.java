@@ -0,0 +1,58 @@
+package nl.knaw.huygens.alexandria;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongObjectHashMapTest {
+
+  @Test
+  public void testBehavesLikeAHashMap() {
+    Random random = new Random(42);
+    LongObjectHashMap<String> map = new LongObjectHashMap<>();
+    Map<Long, String> expected = new HashMap<>();
+    for (int i = 0; i < 50_000; i++) {
+      long key = random.nextInt(2_000) * 1024L;
+      String value = "v" + i;
+      switch (random.nextInt(3)) {
+        case 0:
+          assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+          break;
+        case 1:
+          assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+          break;
+        default:
+          assertThat(map.get(key)).isEqualTo(expected.get(key));
+      }
+      assertThat(map.size()).isEqualTo(expected.size());
+    }
+
+    Map<Long, String> entries = new HashMap<>();
+    map.forEach(entries::put);
+    assertThat(entries).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,82 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.jupiter.api.Test;
+
+import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MemoryTAGStoreTest {
+
+  @Test
+  public void testDataSurvivesClose() {
+    MemoryTAGStore store = new MemoryTAGStore();
+    Long documentId =
+        store.runInTransaction(
+            () -> {
+              TAGDocument document = store.createDocument();
+              document.addTextNode(store.createTextNode("in memory"), null);
+              return document.getDbId();
+            });
+    store.close();
+
+    store.runInTransaction(
+        () -> {
+          TAGDocument document = store.getDocument(documentId);
+          assertThat(document.getTextNodeStream().map(TAGTextNode::getText))
+              .containsExactly("in memory");
+        });
+  }
+
+  @Test
+  public void testIdsAreUniqueOverAllTypes() {
+    MemoryTAGStore store = new MemoryTAGStore();
+    store.runInTransaction(
+        () -> {
+          Long textNodeId = store.createTextNode("text").getDbId();
+          Long valueId = store.createStringAnnotationValue("value");
+          assertThat(valueId).isNotEqualTo(textNodeId);
+          assertThat(store.getTextNodeDTO(valueId)).isNull();
+          assertThat(store.getStringAnnotationValue(valueId).getValue()).isEqualTo("value");
+        });
+  }
+
+  @Test
+  public void testRemove() {
+    MemoryTAGStore store = new MemoryTAGStore();
+    store.runInTransaction(
+        () -> {
+          TAGTextNodeDTO textNode = store.createTextNode("text").getDTO();
+          store.remove(textNode);
+          assertThat(store.getTextNodeDTO(textNode.getDbId())).isNull();
+        });
+  }
+
+  @Test
+  public void testPersistingOutsideATransactionFails() {
+    MemoryTAGStore store = new MemoryTAGStore();
+    assertThatThrownBy(() -> store.persist(new TAGTextNodeDTO("text")))
+        .isInstanceOf(IllegalStateException.class);
+  }
+}
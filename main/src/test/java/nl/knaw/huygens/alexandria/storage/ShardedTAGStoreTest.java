@@ -0,0 +1,124 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.knaw.huc.di.tag.tagml.exporter.TAGMLExporter;
+import nl.knaw.huc.di.tag.tagml.importer.TAGMLImporter;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShardedTAGStoreTest {
+
+  @Test
+  public void testDocumentsAreSpreadOverTheShards(@TempDir Path tmp) throws Exception {
+    List<String> dbDirs =
+        Arrays.asList(tmp.resolve("shard0").toString(), tmp.resolve("shard1").toString());
+    List<String> tagmls =
+        Arrays.asList(
+            "[tagml>[l n=1>Et voilà que de la [x>surface<x] d'un étang<l]<tagml]",
+            "[tagml>[l n=2>Gloire du long désir, [x>Idées<x]<l]<tagml]");
+    List<Long> documentIds = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (ShardedTAGStore store = new ShardedTAGStore(dbDirs, new BDBTAGStoreConfig())) {
+      List<Future<Long>> imports = new ArrayList<>();
+      for (String tagml : tagmls) {
+        imports.add(
+            executor.submit(
+                () ->
+                    store.runInTransaction(
+                        () -> new TAGMLImporter(store).importTAGML(tagml).getDbId())));
+      }
+      for (Future<Long> future : imports) {
+        documentIds.add(future.get(1, TimeUnit.MINUTES));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    try (ShardedTAGStore store = new ShardedTAGStore(dbDirs, new BDBTAGStoreConfig())) {
+      assertThat(documentIds.stream().map(store::shardOf).distinct().count()).isEqualTo(2);
+      store.runInTransaction(
+          () -> {
+            for (int i = 0; i < tagmls.size(); i++) {
+              Long documentId = documentIds.get(i);
+              TAGDocument document = store.getDocument(documentId);
+              assertThat(new TAGMLExporter(store).asTAGML(document)).isEqualTo(tagmls.get(i));
+              int shard = store.shardOf(documentId);
+              assertThat(document.getDTO().getTextNodeIds())
+                  .allMatch(id -> store.shardOf(id) == shard);
+            }
+
+            // a batch read that spans both shards keeps the order of the ids
+            long[] textNodeIds =
+                documentIds.stream()
+                    .flatMap(id -> store.getDocumentDTO(id).getTextNodeIds().stream())
+                    .mapToLong(Long::longValue)
+                    .toArray();
+            List<Long> readIds =
+                store.getTextNodes(textNodeIds).stream()
+                    .map(TAGTextNode::getDbId)
+                    .collect(toList());
+            assertThat(readIds).containsExactlyElementsOf(toLongList(textNodeIds));
+          });
+    }
+  }
+
+  @Test
+  public void testWarmUpReadsTheRecordsOfADocumentThroughTheShardedStore(@TempDir Path tmp) {
+    List<String> dbDirs =
+        Arrays.asList(tmp.resolve("shard0").toString(), tmp.resolve("shard1").toString());
+    try (ShardedTAGStore store = new ShardedTAGStore(dbDirs, new BDBTAGStoreConfig())) {
+      List<Long> documentIds = new ArrayList<>();
+      for (String tagml :
+          Arrays.asList(
+              "[tagml>[l n=1>Et voilà que de la [x>surface<x] d'un étang<l]<tagml]",
+              "[tagml>[l n=2>Gloire du long désir, [x>Idées<x]<l]<tagml]")) {
+        documentIds.add(
+            store.runInTransaction(() -> new TAGMLImporter(store).importTAGML(tagml).getDbId()));
+      }
+      assertThat(documentIds.stream().map(store::shardOf).distinct().count()).isEqualTo(2);
+
+      for (Long documentId : documentIds) {
+        int textNodes =
+            store.runInTransaction(() -> store.getDocumentDTO(documentId).getTextNodeIds().size());
+        assertThat(store.warmUp(documentId, new WarmUpConfig()))
+            .isGreaterThanOrEqualTo(textNodes);
+      }
+    }
+  }
+
+  private static List<Long> toLongList(long[] ids) {
+    return Arrays.stream(ids).boxed().collect(toList());
+  }
+}
@@ -0,0 +1,48 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TAGStoreCacheTest {
+
+  @Test
+  public void testALoadIsOnlyDroppedByInvalidatingItsOwnRecord() {
+    TAGStoreCache cache = new TAGStoreCache(10);
+    byte[] a = {1};
+    byte[] b = {2};
+    Object loadA = cache.startLoad(1L);
+    Object loadB = cache.startLoad(2L);
+    cache.invalidate(2L);
+    cache.put(1L, String.class, a, loadA);
+    cache.put(2L, String.class, b, loadB);
+
+    assertThat(cache.get(1L, String.class)).isSameAs(a);
+    assertThat(cache.get(1L, Integer.class)).isNull();
+    assertThat(cache.get(2L, String.class)).isNull();
+
+    Object reload = cache.startLoad(2L);
+    cache.put(2L, String.class, b, reload);
+    assertThat(cache.get(2L, String.class)).isSameAs(b);
+  }
+}
@@ -0,0 +1,81 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.knaw.huc.di.tag.tagml.exporter.TAGMLExporter;
+import nl.knaw.huc.di.tag.tagml.importer.TAGMLImporter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TAGStoreSnapshotTest {
+
+  @Test
+  public void testRestoredStoreExportsTheSameTAGML(@TempDir Path tmp) throws IOException {
+    String tagml =
+        "[tagml|+A,+B>[l|A>Et voilà que de la <|sombre|jolie|> [x|B n=1 type=\"test\">surface<x|B] d'un étang<l|A]<tagml|A,B]";
+    Path snapshot = tmp.resolve("store.snapshot");
+    Long documentId;
+    try (BDBTAGStore store = new BDBTAGStore(tmp.resolve("source").toString(), false)) {
+      documentId =
+          store.runInTransaction(() -> new TAGMLImporter(store).importTAGML(tagml).getDbId());
+      assertThat(TAGStoreSnapshot.export(store, snapshot)).isPositive();
+    }
+
+    BDBTAGStoreConfig bulkLoad = new BDBTAGStoreConfig().setBulkLoad(true);
+    try (BDBTAGStore store = new BDBTAGStore(tmp.resolve("target").toString(), bulkLoad)) {
+      TAGStoreSnapshot.restore(snapshot, store);
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(tmp.resolve("target").toString(), false)) {
+      store.runInTransaction(
+          () -> {
+            TAGDocument document = store.getDocument(documentId);
+            assertThat(new TAGMLExporter(store).asTAGML(document)).isEqualTo(tagml);
+            assertThat(store.createTextNode("new").getDbId()).isGreaterThan(documentId);
+          });
+    }
+  }
+
+  @Test
+  public void testCorruptSnapshotIsRejected(@TempDir Path tmp) throws IOException {
+    Path snapshot = tmp.resolve("store.snapshot");
+    try (BDBTAGStore store = new BDBTAGStore(tmp.resolve("source").toString(), false)) {
+      store.runInTransaction(() -> new TAGMLImporter(store).importTAGML("[p>text<p]"));
+      TAGStoreSnapshot.export(store, snapshot);
+    }
+    byte[] bytes = Files.readAllBytes(snapshot);
+    Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 12));
+
+    try (BDBTAGStore store = new BDBTAGStore(tmp.resolve("target").toString(), false)) {
+      assertThatThrownBy(() -> TAGStoreSnapshot.restore(snapshot, store))
+          .isInstanceOf(IOException.class);
+    }
+  }
+}
@@ -20,15 +20,33 @@ package nl.knaw.huygens.alexandria.storage;
  * #L%
  */
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import nl.knaw.huc.di.tag.model.graph.TextGraph;
+import nl.knaw.huc.di.tag.tagml.importer.TAGMLImporter;
 import nl.knaw.huygens.alexandria.AlexandriaBaseStoreTest;
+import nl.knaw.huygens.alexandria.storage.TAGStoreMetrics.Operation;
 import nl.knaw.huygens.alexandria.storage.dto.TAGDocumentDTO;
 import nl.knaw.huygens.alexandria.storage.dto.TAGTextNodeDTO;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class TAGStoreTest extends AlexandriaBaseStoreTest {
 
@@ -56,4 +74,679 @@ public class TAGStoreTest extends AlexandriaBaseStoreTest {
                   assertThat(document.getTextNodeIds()).contains(textNode.getDbId());
                 }));
   }
+
+  @Test
+  public void testDocumentUpdatesAreWrittenAtCommit() {
+    AtomicLong documentId = new AtomicLong();
+    AtomicLong textNodeId = new AtomicLong();
+
+    runInStore(
+        store ->
+            store.runInTransaction(
+                () -> {
+                  TAGDocument document = store.createDocument();
+                  documentId.set(document.getDbId());
+                  TAGTextNode textNode = store.createTextNode("something");
+                  textNodeId.set(textNode.getDbId());
+                  document.addTextNode(textNode, null);
+
+                  TAGDocumentDTO pending = store.getDocumentDTO(documentId.get());
+                  assertThat(pending).isSameAs(document.getDTO());
+                }));
+
+    runInStore(
+        store ->
+            store.runInTransaction(
+                () -> {
+                  TAGDocumentDTO document = store.getDocumentDTO(documentId.get());
+                  assertThat(document.getTextNodeIds()).containsExactly(textNodeId.get());
+                  assertThat(document.getFirstTextNodeId()).isEqualTo(textNodeId.get());
+                }));
+  }
+
+  @Test
+  public void testBulkLoadIsReadableAfterReopening(@TempDir Path dbDir) {
+    AtomicLong documentId = new AtomicLong();
+    AtomicLong textNodeId = new AtomicLong();
+
+    BDBTAGStoreConfig bulkLoad = new BDBTAGStoreConfig().setBulkLoad(true);
+    try (TAGStore store = new BDBTAGStore(dbDir.toString(), bulkLoad)) {
+      store.runInTransaction(
+          () -> {
+            TAGDocument document = store.createDocument();
+            documentId.set(document.getDbId());
+            TAGTextNode textNode = store.createTextNode("bulk");
+            textNodeId.set(textNode.getDbId());
+            store.persist(textNode.getDTO().setText("bulk loaded"));
+            document.addTextNode(textNode, null);
+          });
+    }
+
+    try (TAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      store.runInTransaction(
+          () -> {
+            assertThat(store.getTextNodeDTO(textNodeId.get()).getText()).isEqualTo("bulk loaded");
+            assertThat(store.getDocumentDTO(documentId.get()).getTextNodeIds())
+                .containsExactly(textNodeId.get());
+          });
+    }
+  }
+
+  @Test
+  public void testBulkLoadBuffersNewRecordsUntilTheTransactionEnds(@TempDir Path dbDir) {
+    BDBTAGStoreConfig bulkLoad = new BDBTAGStoreConfig().setBulkLoad(true);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), bulkLoad)) {
+      Long textNodeId =
+          store.runInTransaction(
+              () -> {
+                Long id = store.createTextNode("new").getDbId();
+                assertThat(id).isNotNull();
+                assertThat(store.da.textNodeById.contains(id)).isFalse();
+                assertThat(store.getTextNodeDTO(id).getText()).isEqualTo("new");
+                return id;
+              });
+      assertThat(store.da.textNodeById.contains(textNodeId)).isTrue();
+      Long nextId = store.runInTransaction(() -> store.createTextNode("next").getDbId());
+      assertThat(nextId).isGreaterThan(textNodeId);
+    }
+  }
+
+  @Test
+  public void testConcurrentWritersEachGetTheirOwnTransaction(@TempDir Path dbDir)
+      throws Exception {
+    int threads = 4;
+    int documentsPerThread = 25;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (TAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      List<Future<List<Long>>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        String prefix = "thread" + t + "-";
+        futures.add(
+            executor.submit(
+                () -> {
+                  List<Long> documentIds = new ArrayList<>();
+                  for (int i = 0; i < documentsPerThread; i++) {
+                    String text = prefix + i;
+                    Long documentId =
+                        store.runInTransaction(
+                            () -> {
+                              TAGDocument document = store.createDocument();
+                              document.addTextNode(store.createTextNode(text), null);
+                              return document.getDbId();
+                            });
+                    documentIds.add(documentId);
+                  }
+                  return documentIds;
+                }));
+      }
+
+      for (int t = 0; t < threads; t++) {
+        List<Long> documentIds = futures.get(t).get(1, TimeUnit.MINUTES);
+        assertThat(documentIds).hasSize(documentsPerThread);
+        for (int i = 0; i < documentsPerThread; i++) {
+          Long documentId = documentIds.get(i);
+          String expected = "thread" + t + "-" + i;
+          store.runInTransaction(
+              () -> {
+                TAGDocumentDTO document = store.getDocumentDTO(documentId);
+                assertThat(document.getTextNodeIds()).hasSize(1);
+                Long textNodeId = document.getTextNodeIds().get(0);
+                assertThat(store.getTextNodeDTO(textNodeId).getText()).isEqualTo(expected);
+              });
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testChangesAreInvisibleToOtherThreadsUntilCommit(@TempDir Path dbDir)
+      throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (TAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      Long documentId = store.runInTransaction(() -> store.createDocument().getDbId());
+
+      CountDownLatch changed = new CountDownLatch(1);
+      CountDownLatch checked = new CountDownLatch(1);
+      Future<?> writer =
+          executor.submit(
+              () ->
+                  store.runInTransaction(
+                      () -> {
+                        TAGDocument document = store.getDocument(documentId);
+                        document.addTextNode(store.createTextNode("uncommitted"), null);
+                        changed.countDown();
+                        await(checked);
+                      }));
+
+      await(changed);
+      store.runInTransaction(
+          () -> assertThat(store.getDocumentDTO(documentId).getTextNodeIds()).isEmpty());
+      checked.countDown();
+      writer.get(1, TimeUnit.MINUTES);
+
+      store.runInTransaction(
+          () -> assertThat(store.getDocumentDTO(documentId).getTextNodeIds()).hasSize(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRepeatedReadsAreServedFromTheCache(@TempDir Path dbDir) {
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      Long textNodeId = store.runInTransaction(() -> store.createTextNode("cached").getDbId());
+
+      TAGTextNode first = store.runInTransaction(() -> store.getTextNode(textNodeId));
+      long hitsBefore = store.getDTOCacheStats().hitCount();
+      TAGTextNode second = store.runInTransaction(() -> store.getTextNode(textNodeId));
+      assertThat(store.getDTOCacheStats().hitCount() - hitsBefore).isPositive();
+      assertThat(second.getText()).isEqualTo("cached");
+
+      store.runInTransaction(() -> store.persist(first.getDTO().setText("changed")));
+      TAGTextNode third = store.runInTransaction(() -> store.getTextNode(textNodeId));
+      assertThat(third.getText()).isEqualTo("changed");
+    }
+  }
+
+  @Test
+  public void testCachedRecordsAreNotSharedBetweenTransactions(@TempDir Path dbDir) {
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      Long textNodeId = store.runInTransaction(() -> store.createTextNode("cached").getDbId());
+      TAGTextNodeDTO first = store.runInTransaction(() -> store.getTextNodeDTO(textNodeId));
+
+      TAGTextNodeDTO changed =
+          store.runInTransaction(
+              () -> store.getTextNodeDTO(textNodeId).setText("changed, but not persisted"));
+      TAGTextNodeDTO second = store.runInTransaction(() -> store.getTextNodeDTO(textNodeId));
+      assertThat(second).isNotSameAs(first).isNotSameAs(changed);
+      assertThat(second.getText()).isEqualTo("cached");
+      assertThat(first.getText()).isEqualTo("cached");
+    }
+  }
+
+  @Test
+  public void testADocumentIsReadOncePerTransaction(@TempDir Path dbDir) {
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      Long documentId =
+          store.runInTransaction(
+              () -> {
+                TAGDocument document = store.createDocument();
+                TAGMarkup markup = store.createMarkup(document, "l");
+                document.addLayer("L", markup, null);
+                store.persist(document.getDTO());
+                return document.getDbId();
+              });
+
+      TAGDocumentDTO first =
+          store.runInTransaction(
+              () -> {
+                TAGDocumentDTO document = store.getDocumentDTO(documentId);
+                document.getTextGraph();
+                assertThat(store.getDocumentDTO(documentId)).isSameAs(document);
+                assertThat(store.getDocument(documentId).getDTO()).isSameAs(document);
+                assertThat(store.getDocumentDTO(documentId).isTextGraphLoaded()).isTrue();
+                return document;
+              });
+      store.runInTransaction(
+          () -> assertThat(store.getDocumentDTO(documentId)).isNotSameAs(first));
+    }
+  }
+
+  @Test
+  public void testCacheIsBounded(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setCacheSize(2).setTextChunkSize(0);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      List<Long> textNodeIds = new ArrayList<>();
+      store.runInTransaction(
+          () -> {
+            for (int i = 0; i < 5; i++) {
+              textNodeIds.add(store.createTextNode("node" + i).getDbId());
+            }
+          });
+      store.runInTransaction(() -> textNodeIds.forEach(store::getTextNodeDTO));
+
+      assertThat(store.getDTOCacheStats().missCount()).isEqualTo(5);
+      assertThat(store.getDTOCacheStats().evictionCount()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void testTextNodesShareTextChunks(@TempDir Path dbDir) {
+    List<Long> textNodeIds = new ArrayList<>();
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setTextChunkSize(10);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      store.runInTransaction(
+          () -> {
+            for (String text : new String[] {"one ", "two ", "", "three"}) {
+              TAGTextNode textNode = store.createTextNode(text);
+              textNodeIds.add(textNode.getDbId());
+              assertThat(store.getTextNodeDTO(textNode.getDbId()).getText()).isEqualTo(text);
+            }
+          });
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      store.runInTransaction(
+          () -> {
+            List<TAGTextNodeDTO> textNodes = new ArrayList<>();
+            textNodeIds.forEach(id -> textNodes.add(store.getTextNodeDTO(id)));
+            assertThat(textNodes)
+                .extracting(TAGTextNodeDTO::getText)
+                .containsExactly("one ", "two ", "", "three");
+            assertThat(textNodes.get(0).getChunkId()).isEqualTo(textNodes.get(1).getChunkId());
+            assertThat(textNodes.get(2).hasInlineText()).isTrue();
+            assertThat(textNodes.get(3).getChunkId()).isNotEqualTo(textNodes.get(0).getChunkId());
+          });
+    }
+  }
+
+  @Test
+  public void testTextChunksAreRemovedWithTheirLastTextNode(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setTextChunkSize(10);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      // one transaction, so both texts go into the same chunk
+      long[] ids =
+          store.runInTransaction(
+              () ->
+                  new long[] {
+                    store.createTextNode("one ").getDbId(), store.createTextNode("two ").getDbId()
+                  });
+      Long first = ids[0];
+      Long second = ids[1];
+      Long chunkId = store.runInTransaction(() -> store.getTextNodeDTO(first).getChunkId());
+      assertThat(store.runInTransaction(() -> store.getTextNodeDTO(second).getChunkId()))
+          .isEqualTo(chunkId);
+
+      store.runInTransaction(() -> store.persist(store.getTextNodeDTO(first).setText("uno ")));
+      assertThat(store.da.textChunkById.contains(chunkId)).isTrue();
+
+      store.runInTransaction(() -> store.remove(store.getTextNodeDTO(second)));
+      assertThat(store.da.textChunkById.contains(chunkId)).isFalse();
+      store.runInTransaction(
+          () -> assertThat(store.getTextNodeDTO(first).getText()).isEqualTo("uno "));
+    }
+  }
+
+  @Test
+  public void testIdenticalAnnotationValuesShareOneRecord(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setInternAnnotationValues(true);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      Long deletion =
+          store.runInTransaction(
+              () -> {
+                Long id = store.createStringAnnotationValue("deletion");
+                assertThat(store.createStringAnnotationValue("deletion")).isEqualTo(id);
+                assertThat(store.createStringAnnotationValue("addition")).isNotEqualTo(id);
+                assertThat(store.createReferenceValue("deletion")).isNotEqualTo(id);
+                return id;
+              });
+      assertThat(store.runInTransaction(() -> store.createNumberAnnotationValue(1.0)))
+          .isEqualTo(store.runInTransaction(() -> store.createNumberAnnotationValue(1.0)));
+
+      store.runInTransaction(
+          () -> {
+            StringAnnotationValue value = store.getStringAnnotationValue(deletion);
+            assertThat(value.getReferenceCount()).isEqualTo(2);
+            store.remove(value);
+          });
+      store.runInTransaction(
+          () -> {
+            StringAnnotationValue value = store.getStringAnnotationValue(deletion);
+            assertThat(value.getReferenceCount()).isEqualTo(1);
+            store.remove(value);
+          });
+      store.runInTransaction(() -> assertThat(store.getStringAnnotationValue(deletion)).isNull());
+    }
+  }
+
+  @Test
+  public void testConcurrentReferencesToAnAnnotationValueAreAllCounted(@TempDir Path dbDir)
+      throws Exception {
+    int threads = 4;
+    int referencesPerThread = 25;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setInternAnnotationValues(true);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      Long id = store.runInTransaction(() -> store.createStringAnnotationValue("shared"));
+      runConcurrently(
+          executor,
+          threads,
+          () -> {
+            for (int i = 0; i < referencesPerThread; i++) {
+              store.runInTransaction(() -> store.createStringAnnotationValue("shared"));
+            }
+          });
+      store.runInTransaction(
+          () ->
+              assertThat(store.getStringAnnotationValue(id).getReferenceCount())
+                  .isEqualTo(1 + threads * referencesPerThread));
+
+      runConcurrently(
+          executor,
+          threads,
+          () -> {
+            for (int i = 0; i < referencesPerThread; i++) {
+              StringAnnotationValue stale =
+                  store.runInTransaction(() -> store.getStringAnnotationValue(id));
+              store.runInTransaction(() -> store.remove(stale));
+            }
+          });
+      store.runInTransaction(
+          () -> assertThat(store.getStringAnnotationValue(id).getReferenceCount()).isEqualTo(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void runConcurrently(ExecutorService executor, int threads, Runnable task)
+      throws Exception {
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(task));
+    }
+    for (Future<?> future : futures) {
+      future.get(1, TimeUnit.MINUTES);
+    }
+  }
+
+  @Test
+  public void testBatchFetchKeepsTheOrderOfTheIds(@TempDir Path dbDir) {
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      List<Long> textNodeIds = new ArrayList<>();
+      store.runInTransaction(
+          () -> {
+            for (int i = 0; i < 5; i++) {
+              textNodeIds.add(store.createTextNode("node" + i).getDbId());
+            }
+          });
+      long[] ids = {
+        textNodeIds.get(3), textNodeIds.get(0), -1L, textNodeIds.get(4), textNodeIds.get(3)
+      };
+
+      store.runInTransaction(
+          () -> {
+            store.getTextNode(textNodeIds.get(0)); // cached
+            assertThat(store.getTextNodes(ids))
+                .extracting(tn -> tn == null ? null : tn.getText())
+                .containsExactly("node3", "node0", null, "node4", "node3");
+            assertThat(store.streamTextNodes(LongStream.of(ids)).filter(Objects::nonNull))
+                .extracting(TAGTextNode::getDbId)
+                .containsExactly(ids[0], ids[1], ids[3], ids[4]);
+          });
+    }
+  }
+
+  @Test
+  public void testGroupCommitSharesLogSyncs(@TempDir Path dbDir) throws Exception {
+    int threads = 4;
+    int commitsPerThread = 25;
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setGroupCommit(true);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < commitsPerThread; i++) {
+                    store.runInTransaction(() -> store.createTextNode("text"));
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+
+      CommitMetrics metrics = store.getCommitMetrics();
+      assertThat(metrics.getCommits()).isEqualTo(threads * commitsPerThread);
+      assertThat(metrics.getSyncs() + metrics.getGroupedCommits())
+          .isEqualTo(threads * commitsPerThread);
+      assertThat(metrics.getFailures()).isZero();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRecordsOfADocumentGetIdsFromItsOwnBlocks(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setIdBlockSize(100);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      store.runInTransaction(
+          () -> {
+            TAGDocument document1 = store.createDocument();
+            Long textNode1a = store.createTextNode("a").getDbId();
+            TAGDocument document2 = store.createDocument();
+            Long textNode2a = store.createTextNode("a").getDbId();
+            store.createMarkup(document1, "m");
+            Long textNode1b = store.createTextNode("b").getDbId();
+
+            assertThat(textNode1b).isEqualTo(textNode1a + 1);
+            assertThat(Math.abs(textNode2a - textNode1a)).isGreaterThanOrEqualTo(100);
+            assertThat(store.getTextNode(textNode1b).getText()).isEqualTo("b");
+            assertThat(document2.getDbId()).isNotEqualTo(textNode2a);
+          });
+    }
+  }
+
+  @Test
+  public void testIdBlocksOfADocumentAreKeptBetweenTransactions(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setIdBlockSize(100);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      Long documentId = store.runInTransaction(() -> store.createDocument().getDbId());
+      Long otherDocumentId = store.runInTransaction(() -> store.createDocument().getDbId());
+      Long textNodeA =
+          store.runInTransaction(
+              () -> {
+                store.createMarkup(store.getDocument(documentId), "m");
+                return store.createTextNode("a").getDbId();
+              });
+      Long textNodeB =
+          store.runInTransaction(
+              () -> {
+                store.createMarkup(store.getDocument(documentId), "m");
+                // reading another document does not switch blocks
+                store.getDocumentDTO(otherDocumentId);
+                return store.createTextNode("b").getDbId();
+              });
+
+      assertThat(textNodeB).isEqualTo(textNodeA + 1);
+    }
+  }
+
+  @Test
+  public void testTextGraphIsReadWhenItIsFirstAskedFor(@TempDir Path dbDir) {
+    Long documentId;
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      documentId =
+          store.runInTransaction(
+              () -> {
+                TAGDocument document = store.createDocument();
+                TAGMarkup markup = store.createMarkup(document, "l");
+                document.getDTO().getTextGraph().setLayerRootMarkup("L", markup.getDbId());
+                document.addTextNode(store.createTextNode("text"), null);
+                store.persist(document.getDTO());
+                return document.getDbId();
+              });
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      store.runInTransaction(
+          () -> {
+            TAGDocumentDTO document = store.getDocumentDTO(documentId);
+            assertThat(document.getLayerNames()).containsExactly("L");
+            assertThat(document.isTextGraphLoaded()).isFalse();
+
+            assertThat(document.getTextGraph().getLayerRootMap()).containsOnlyKeys("L");
+            assertThat(document.isTextGraphLoaded()).isTrue();
+          });
+    }
+  }
+
+  @Test
+  public void testAReadOnlyStoreSharesTheTextGraphOfADocument(@TempDir Path dbDir) {
+    Long documentId;
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      documentId =
+          store.runInTransaction(
+              () -> {
+                TAGDocument document = store.createDocument();
+                document.addTextNode(store.createTextNode("text"), null);
+                store.persist(document.getDTO());
+                return document.getDbId();
+              });
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), true)) {
+      TextGraph first =
+          store.runInTransaction(() -> store.getDocumentDTO(documentId).getTextGraph());
+      TextGraph second =
+          store.runInTransaction(() -> store.getDocumentDTO(documentId).getTextGraph());
+      assertThat(second).isSameAs(first);
+    }
+  }
+
+  @Test
+  public void testMetricsCountOperationsAndAborts(@TempDir Path dbDir) throws Exception {
+    BDBTAGStoreConfig config = new BDBTAGStoreConfig().setMetricsMBean(true);
+    String quotedDir = ObjectName.quote(dbDir.toString());
+    ObjectName name =
+        new ObjectName("nl.knaw.huygens.alexandria:type=BDBTAGStore,dir=" + quotedDir);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      Long textNodeId = store.runInTransaction(() -> store.createTextNode("text").getDbId());
+      store.runInTransaction(() -> store.getTextNodeDTO(textNodeId));
+      assertThatThrownBy(
+              () ->
+                  store.runInTransaction(
+                      () -> {
+                        store.createTextNode("rolled back");
+                        throw new IllegalStateException("abort");
+                      }))
+          .isInstanceOf(IllegalStateException.class);
+
+      TAGStoreMetrics metrics = store.getMetrics();
+      assertThat(metrics.getLatencies(Operation.PERSIST).getCount()).isGreaterThanOrEqualTo(2);
+      assertThat(metrics.getLatencies(Operation.GET_DTO).getCount()).isPositive();
+      assertThat(metrics.getLatencies(Operation.COMMIT).getCount()).isEqualTo(2);
+      assertThat(metrics.getLatencies(Operation.ABORT).getCount()).isEqualTo(1);
+      assertThat(metrics.getAborts()).isEqualTo(1);
+      assertThat(metrics.dump()).contains("COMMIT: count=2").contains("ABORT: count=1");
+
+      assertThat(server.isRegistered(name)).isTrue();
+      assertThat(server.getAttribute(name, "Aborts")).isEqualTo(1L);
+    }
+    assertThat(server.isRegistered(name)).isFalse();
+  }
+
+  @Test
+  public void testLogCompactionCanBeRunOnDemand(@TempDir Path dbDir) {
+    BDBTAGStoreConfig config =
+        new BDBTAGStoreConfig().setLogCompaction(true).setLogCompactionIntervalMillis(60_000);
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), config)) {
+      Long textNodeId = store.runInTransaction(() -> store.createTextNode("text").getDbId());
+      for (int i = 0; i < 100; i++) {
+        String text = "text " + i;
+        store.runInTransaction(
+            () -> {
+              TAGTextNodeDTO textNode = store.getTextNodeDTO(textNodeId);
+              textNode.setText(text);
+              store.persist(textNode);
+            });
+      }
+
+      assertThat(store.compactLog()).isNotNegative();
+      CompactionMetrics metrics = store.getMetrics().getCompactionMetrics();
+      assertThat(metrics.getRuns()).isEqualTo(1);
+      assertThat(metrics.getReclaimedBytes()).isNotNegative();
+    }
+
+    // by default the log is left to the BDB cleaner
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), new BDBTAGStoreConfig())) {
+      assertThatThrownBy(store::compactLog).isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  public void testWarmUpFillsTheCacheWithTheRecordsOfADocument(@TempDir Path dbDir) {
+    String tagml = "[tagml>[l n=1 type=\"test\">Et voilà la [x>surface<x] d'un étang<l]<tagml]";
+    Long documentId;
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      documentId =
+          store.runInTransaction(() -> new TAGMLImporter(store).importTAGML(tagml).getDbId());
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      List<Long> progress = new ArrayList<>();
+      WarmUpConfig warmUpConfig =
+          new WarmUpConfig()
+              .setParallelism(2)
+              .setProgressListener((recordsRead, recordsToRead) -> progress.add(recordsRead));
+      long recordsRead = store.warmUp(documentId, warmUpConfig);
+      assertThat(recordsRead).isPositive();
+      assertThat(progress).isNotEmpty().isSorted().endsWith(recordsRead);
+
+      long hitsBefore = store.getDTOCacheStats().hitCount();
+      long missesBefore = store.getDTOCacheStats().missCount();
+      long[] textNodeIds =
+          store.runInTransaction(
+              () ->
+                  store.getDocumentDTO(documentId).getTextNodeIds().stream()
+                      .mapToLong(Long::longValue)
+                      .toArray());
+      store.runInTransaction(() -> store.getTextNodes(textNodeIds));
+      assertThat(store.getDTOCacheStats().hitCount() - hitsBefore)
+          .isGreaterThanOrEqualTo(textNodeIds.length);
+      assertThat(store.getDTOCacheStats().missCount()).isEqualTo(missesBefore);
+
+      assertThat(store.warmUp(documentId, new WarmUpConfig().setMaxRecords(1))).isZero();
+    }
+  }
+
+  @Test
+  public void testReloadedDocumentCanBeChanged(@TempDir Path dbDir) {
+    Long documentId;
+    Long markupId;
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      documentId = store.runInTransaction(() -> store.createDocument().getDbId());
+      markupId =
+          store.runInTransaction(
+              () -> store.createMarkup(store.getDocument(documentId), "l").getDbId());
+    }
+
+    Long textNodeId;
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      textNodeId =
+          store.runInTransaction(
+              () -> {
+                TAGDocument document = store.getDocument(documentId);
+                assertThat(document.hasTextNodes()).isFalse();
+                TAGTextNode textNode = store.createTextNode("text");
+                document.addTextNode(textNode, null);
+                document.associateTextNodeWithMarkupForLayer(
+                    textNode, store.getMarkup(markupId), "L");
+                assertThat(document.hasTextNodes()).isTrue();
+                assertThat(document.getFirstTextNode().getDbId()).isEqualTo(textNode.getDbId());
+                return textNode.getDbId();
+              });
+    }
+
+    try (BDBTAGStore store = new BDBTAGStore(dbDir.toString(), false)) {
+      store.runInTransaction(
+          () -> {
+            TAGDocumentDTO document = store.getDocumentDTO(documentId);
+            assertThat(document.getFirstTextNodeId()).isEqualTo(textNodeId);
+            assertThat(document.getTextGraph().getOutgoingEdges(markupId)).hasSize(1);
+          });
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertThat(latch.await(1, TimeUnit.MINUTES)).isTrue();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
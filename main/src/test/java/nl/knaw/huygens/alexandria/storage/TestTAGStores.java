@@ -0,0 +1,51 @@
+package nl.knaw.huygens.alexandria.storage;
+
+/*
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Path;
+
+/**
+ * Opens the store a test suite runs against: a {@link BDBTAGStore} in the given directory, or, with
+ * {@code -Dalexandria.store=memory} (the {@code memory-store} Maven profile), a {@link
+ * MemoryTAGStore}. Every open of the memory store returns the same store, since closing it keeps
+ * the data, just like a BDB store that is opened again in the same directory.
+ */
+public class TestTAGStores {
+  private static final boolean USE_MEMORY_STORE =
+      "memory".equals(System.getProperty("alexandria.store"));
+
+  private final Path dbDir;
+  private MemoryTAGStore memoryStore;
+
+  public TestTAGStores(Path dbDir) {
+    this.dbDir = dbDir;
+  }
+
+  public TAGStore open() {
+    if (USE_MEMORY_STORE) {
+      if (memoryStore == null) {
+        memoryStore = new MemoryTAGStore();
+      }
+      return memoryStore;
+    }
+    return new BDBTAGStore(dbDir.toString(), false);
+  }
+}
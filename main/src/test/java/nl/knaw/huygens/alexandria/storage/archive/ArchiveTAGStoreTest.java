@@ -0,0 +1,97 @@
+package nl.knaw.huygens.alexandria.storage.archive;
+
+/*-
+ * #%L
+ * alexandria-markup-core
+ * =======
+ * Copyright (C) 2016 - 2021 HuC DI (KNAW)
+ * =======
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.knaw.huc.di.tag.TAGBaseStoreTest;
+import nl.knaw.huc.di.tag.tagml.exporter.TAGMLExporter;
+import nl.knaw.huc.di.tag.tagml.importer.TAGMLImporter;
+import nl.knaw.huygens.alexandria.storage.TAGDocument;
+import nl.knaw.huygens.alexandria.storage.TAGTextNode;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ArchiveTAGStoreTest extends TAGBaseStoreTest {
+
+  @Test
+  public void testArchivedDocumentExportsTheSameTAGML(@TempDir Path tmp) {
+    String tagml =
+        "[tagml|+A,+B>[l|A>Et voilà que de la <|sombre|jolie|> [x|B n=1 type=\"test\">surface<x|B] d'un étang<l|A]<tagml|A,B]";
+    Path archive = tmp.resolve("edition.tag");
+    Long documentId = writeArchive(tagml, archive);
+
+    try (ArchiveTAGStore store = new ArchiveTAGStore(archive)) {
+      TAGDocument document = store.getDocument(documentId);
+      assertThat(new TAGMLExporter(store).asTAGML(document)).isEqualTo(tagml);
+    }
+  }
+
+  @Test
+  public void testTextOrderIsReadFromTheArchive(@TempDir Path tmp) {
+    Path archive = tmp.resolve("edition.tag");
+    Long documentId = writeArchive("[p>Donald [b>likes<b] Vladimir<p]", archive);
+
+    try (ArchiveTAGStore store = new ArchiveTAGStore(archive)) {
+      assertThat(store.getDocumentIds().boxed().collect(toList())).containsExactly(documentId);
+      List<String> texts =
+          store
+              .getTextNodeIdsInTextOrder(documentId)
+              .mapToObj(store::getTextNode)
+              .map(TAGTextNode::getText)
+              .collect(toList());
+      assertThat(texts).containsExactly("Donald ", "likes", " Vladimir");
+    }
+  }
+
+  @Test
+  public void testArchiveIsReadOnly(@TempDir Path tmp) {
+    Path archive = tmp.resolve("edition.tag");
+    writeArchive("[p>text<p]", archive);
+
+    try (ArchiveTAGStore store = new ArchiveTAGStore(archive)) {
+      assertThatThrownBy(store::createDocument).isInstanceOf(UnsupportedOperationException.class);
+    }
+  }
+
+  private Long writeArchive(String tagml, Path archive) {
+    Long[] documentId = new Long[1];
+    runInStoreTransaction(
+        store -> {
+          TAGDocument document = new TAGMLImporter(store).importTAGML(tagml);
+          documentId[0] = document.getDbId();
+          try {
+            new TAGArchiveWriter(store).write(archive, documentId[0]);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+    return documentId[0];
+  }
+}